@@ -0,0 +1,311 @@
+/*
+ * Runtime support of the C// compiler. Link it with every compiled program.
+ */
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+/*
+ * Input and output of the <== and ==> statements. Both directions use
+ * a large buffer, values are converted by hand instead of by printf
+ * and scanf, which would parse a format string for every value.
+ * The input follows the rules of scanf: an integer or a string skips
+ * leading white space, a byte is the next character. A value which
+ * cannot be read leaves the variable unchanged. The output is flushed
+ * when the program exits and before the program waits for input,
+ * so that prompts are shown.
+ */
+
+#define IO_BUFFER_SIZE (1 << 16)
+
+static char out_buffer[IO_BUFFER_SIZE];
+static size_t out_length = 0;
+
+static char in_buffer[IO_BUFFER_SIZE];
+static size_t in_position = 0;
+static size_t in_length = 0;
+
+static void flush_output(void)
+{
+	if (out_length > 0)
+		fwrite(out_buffer, 1, out_length, stdout);
+	out_length = 0;
+	fflush(stdout);
+}
+
+/* runs when main returns or exit() is called */
+static void __attribute__((destructor)) flush_at_exit(void)
+{
+	flush_output();
+}
+
+static void write_bytes(const char *bytes, size_t length)
+{
+	if (out_length + length > IO_BUFFER_SIZE) {
+		flush_output();
+		if (length > IO_BUFFER_SIZE) {
+			fwrite(bytes, 1, length, stdout);
+			return;
+		}
+	}
+	for (size_t i = 0; i < length; ++i)
+		out_buffer[out_length + i] = bytes[i];
+	out_length += length;
+}
+
+void __css_write_int(int value)
+{
+	/* enough for the sign and 10 digits */
+	char digits[11];
+	int i = sizeof(digits);
+	/* the magnitude of INT_MIN is not an int */
+	unsigned int magnitude = value < 0 ? 0u - (unsigned int) value : (unsigned int) value;
+
+	do {
+		digits[--i] = (char) ('0' + magnitude % 10);
+		magnitude /= 10;
+	} while (magnitude != 0);
+	if (value < 0)
+		digits[--i] = '-';
+	write_bytes(digits + i, sizeof(digits) - i);
+}
+
+void __css_write_byte(char value)
+{
+	if (out_length == IO_BUFFER_SIZE)
+		flush_output();
+	out_buffer[out_length++] = value;
+}
+
+void __css_write_str(const char *value)
+{
+	while (*value != '\0') {
+		if (out_length == IO_BUFFER_SIZE)
+			flush_output();
+		out_buffer[out_length++] = *value++;
+	}
+}
+
+/* writes text whose length is known at compile time, e.g. adjacent string literals */
+void __css_write_bytes(const char *bytes, int length)
+{
+	write_bytes(bytes, (size_t) length);
+}
+
+void __css_write_endl(void)
+{
+	__css_write_byte('\n');
+}
+
+/*
+ * Returns the next input character without consuming it, EOF at the end of the input.
+ */
+static int peek_input(void)
+{
+	if (in_position == in_length) {
+		flush_output();
+		in_length = fread(in_buffer, 1, IO_BUFFER_SIZE, stdin);
+		in_position = 0;
+		if (in_length == 0)
+			return EOF;
+	}
+	return (unsigned char) in_buffer[in_position];
+}
+
+static int is_space(int c)
+{
+	return c == ' ' || (c >= '\t' && c <= '\r');
+}
+
+static void skip_spaces(void)
+{
+	while (is_space(peek_input()))
+		++in_position;
+}
+
+void __css_read_int(int *value)
+{
+	unsigned int magnitude = 0;
+	int negative = 0;
+	int c;
+
+	skip_spaces();
+	c = peek_input();
+	if (c == '-' || c == '+') {
+		negative = c == '-';
+		++in_position;
+		c = peek_input();
+	}
+	if (c < '0' || c > '9')
+		return;
+	do {
+		magnitude = magnitude * 10 + (unsigned int) (c - '0');
+		++in_position;
+		c = peek_input();
+	} while (c >= '0' && c <= '9');
+	*value = (int) (negative ? 0u - magnitude : magnitude);
+}
+
+void __css_read_byte(char *value)
+{
+	int c = peek_input();
+
+	if (c == EOF)
+		return;
+	++in_position;
+	*value = (char) c;
+}
+
+/* reads a word, the destination must be large enough as with scanf("%s") */
+void __css_read_str(char *value)
+{
+	int c;
+
+	skip_spaces();
+	c = peek_input();
+	if (c == EOF)
+		return;
+	do {
+		*value++ = (char) c;
+		++in_position;
+		c = peek_input();
+	} while (c != EOF && !is_space(c));
+	*value = '\0';
+}
+
+/*
+ * Arena allocator for arrays. Memory is taken from large chunks by bumping
+ * a pointer. The compiler saves the current position by __css_arena_mark()
+ * when a code block declaring an array is entered and returns to it
+ * by __css_arena_release() when the block is left, so the arrays
+ * of the block are freed all at once.
+ */
+
+#define ARENA_ALIGN 16
+#define ARENA_CHUNK_SIZE (1 << 20)
+
+struct arena_chunk {
+	struct arena_chunk *prev;
+	char *end;
+	/* memory of the chunk follows the header */
+};
+
+#define ARENA_HEADER_SIZE \
+	((sizeof(struct arena_chunk) + ARENA_ALIGN - 1) / ARENA_ALIGN * ARENA_ALIGN)
+
+/* the newest chunk, allocations are taken from it */
+static struct arena_chunk *arena_chunk = NULL;
+static char *arena_top = NULL;
+/* a released chunk kept for reuse, so that a loop does not call malloc in every iteration */
+static struct arena_chunk *arena_spare = NULL;
+
+static char *chunk_begin(struct arena_chunk *chunk)
+{
+	return (char *) chunk + ARENA_HEADER_SIZE;
+}
+
+static struct arena_chunk *new_chunk(size_t size)
+{
+	struct arena_chunk *chunk;
+	size_t total = ARENA_HEADER_SIZE + size;
+
+	if (arena_spare != NULL && (size_t) (arena_spare->end - chunk_begin(arena_spare)) >= size) {
+		chunk = arena_spare;
+		arena_spare = NULL;
+		return chunk;
+	}
+	if (total < ARENA_CHUNK_SIZE)
+		total = ARENA_CHUNK_SIZE;
+	chunk = malloc(total);
+	if (chunk == NULL) {
+		fprintf(stderr, "out of memory: cannot allocate an array of %zu bytes\n", size);
+		exit(1);
+	}
+	chunk->end = (char *) chunk + total;
+	return chunk;
+}
+
+void *__css_arena_alloc(long size)
+{
+	char *result;
+	size_t rounded;
+
+	if (size < 0) {
+		fprintf(stderr, "negative array size\n");
+		exit(1);
+	}
+	rounded = ((size_t) size + ARENA_ALIGN - 1) / ARENA_ALIGN * ARENA_ALIGN;
+	if (arena_chunk == NULL || (size_t) (arena_chunk->end - arena_top) < rounded) {
+		struct arena_chunk *chunk = new_chunk(rounded);
+		chunk->prev = arena_chunk;
+		arena_chunk = chunk;
+		arena_top = chunk_begin(chunk);
+	}
+	result = arena_top;
+	arena_top += rounded;
+	return result;
+}
+
+void *__css_arena_mark(void)
+{
+	return arena_top;
+}
+
+void __css_arena_release(void *mark)
+{
+	char *position = mark;
+
+	/* free the chunks allocated after the mark */
+	while (arena_chunk != NULL &&
+			(position < chunk_begin(arena_chunk) || position > arena_chunk->end)) {
+		struct arena_chunk *prev = arena_chunk->prev;
+		/* keep the larger of the chunks */
+		if (arena_spare == NULL || arena_spare->end - (char *) arena_spare <
+				arena_chunk->end - (char *) arena_chunk) {
+			free(arena_spare);
+			arena_spare = arena_chunk;
+		} else {
+			free(arena_chunk);
+		}
+		arena_chunk = prev;
+	}
+	arena_top = position;
+}
+
+/*
+ * String functions of programs importing the string library. They behave
+ * like those of demos/strings/libstring.css, but strings are measured
+ * and copied by the C library, which handles whole words at a time.
+ * strcmp() compares bytes as signed values and returns -1, 0 or 1.
+ */
+
+int __css_strlen(const char *s)
+{
+	return (int) strlen(s);
+}
+
+int __css_strcmp(const char *s1, const char *s2)
+{
+	size_t i = 0;
+
+	while (s1[i] == s2[i] && s1[i] != '\0')
+		++i;
+	/* the end of a string precedes any byte */
+	if (s1[i] == s2[i])
+		return 0;
+	if (s1[i] == '\0')
+		return -1;
+	if (s2[i] == '\0')
+		return 1;
+	return (signed char) s1[i] < (signed char) s2[i] ? -1 : 1;
+}
+
+void __css_strcpy(char *dest, const char *src)
+{
+	memmove(dest, src, strlen(src) + 1);
+}
+
+void __css_strcat(char *dest, const char *src)
+{
+	__css_strcpy(dest + strlen(dest), src);
+}
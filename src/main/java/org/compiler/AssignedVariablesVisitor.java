@@ -0,0 +1,33 @@
+package org.compiler;
+
+import org.gen.*;
+
+/**
+ * Collects names of the variables a function assigns to
+ * or reads from stdin after their declaration. The names are added
+ * to GlobalContext.assignedVariables. A scalar initialized by a constant
+ * whose name is not collected holds the constant for its whole lifetime.
+ */
+public class AssignedVariablesVisitor extends cssBaseVisitor<Void> {
+    public static AssignedVariablesVisitor getInstance(GlobalContext globalContext) {
+        return globalContext.getVisitor(AssignedVariablesVisitor.class, AssignedVariablesVisitor::new);
+    }
+
+    private final GlobalContext globalContext;
+
+    private AssignedVariablesVisitor(GlobalContext globalContext) {
+        this.globalContext = globalContext;
+    }
+
+    @Override
+    public Void visitAssignExpr(cssParser.AssignExprContext ctx) {
+        globalContext.assignedVariables.add(ctx.variable().ID().getText());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitStatementInput(cssParser.StatementInputContext ctx) {
+        globalContext.assignedVariables.add(ctx.variable().ID().getText());
+        return visitChildren(ctx);
+    }
+}
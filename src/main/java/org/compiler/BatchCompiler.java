@@ -0,0 +1,89 @@
+package org.compiler;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * Compiles many source files in one invocation, so the JVM and
+ * the templates are warmed up only once. Files are compiled concurrently
+ * by a fixed number of workers and every file is compiled to its own
+ * output file. A failure of one file does not stop the others.
+ */
+public class BatchCompiler {
+    private record Result(String outputFile, String error, int characters, long nanos) {
+
+    }
+
+    private final Compiler compiler = new Compiler();
+
+    public BatchCompiler() {
+
+    }
+
+    private Result compileFile(CompilerOptions options, int i) {
+        String outputFile = options.batchOutputFile(i);
+        long start = System.nanoTime();
+        try {
+            int characters = compiler.compileFile(options.inputFiles.get(i), outputFile, options);
+            return new Result(outputFile, null, characters, System.nanoTime() - start);
+        } catch (CompilationException e) {
+            return new Result(outputFile, e.getMessage(), 0, System.nanoTime() - start);
+        } catch (RuntimeException | StackOverflowError e) {
+            return new Result(outputFile, "Fatal compilation error.", 0, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Formats throughput in source kilobytes per second.
+     */
+    private static String throughput(long characters, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        return String.format(Locale.ROOT, "%.1f KB/s", characters / 1024.0 / seconds);
+    }
+
+    /**
+     * Compiles all input files of the options. Results are reported
+     * in the order of the inputs: compiled files and the final summary
+     * to the report stream, errors prefixed by the input file to the error stream.
+     * @return number of files which failed to compile
+     */
+    public int compile(CompilerOptions options, PrintStream report, PrintStream errors) {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(options.jobs);
+        List<Future<Result>> results = new ArrayList<>(options.inputFiles.size());
+        for (int i = 0; i < options.inputFiles.size(); ++i) {
+            int file = i;
+            results.add(workers.submit(() -> compileFile(options, file)));
+        }
+
+        int failed = 0;
+        long characters = 0;
+        try {
+            for (int i = 0; i < results.size(); ++i) {
+                Result result = results.get(i).get();
+                String inputFile = options.inputFiles.get(i);
+                if (result.error() != null) {
+                    ++failed;
+                    errors.println(inputFile + ": " + result.error());
+                    continue;
+                }
+                characters += result.characters();
+                report.printf(Locale.ROOT, "%s -> %s: %.1f ms, %s%n", inputFile, result.outputFile(),
+                        result.nanos() / 1e6, throughput(result.characters(), result.nanos()));
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        long nanos = System.nanoTime() - start;
+        report.printf(Locale.ROOT, "compiled %d of %d files in %.3f s, %.1f files/s, %s%n",
+                results.size() - failed, results.size(), nanos / 1e9,
+                results.size() / Math.max(nanos / 1e9, 1e-9), throughput(characters, nanos));
+        return failed;
+    }
+}
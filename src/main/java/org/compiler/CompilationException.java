@@ -0,0 +1,13 @@
+package org.compiler;
+
+/**
+ * Thrown when the compiled program contains an error.
+ * The message is a complete error message for the user.
+ */
+public class CompilationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public CompilationException(String message) {
+        super(message);
+    }
+}
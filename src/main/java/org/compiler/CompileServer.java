@@ -0,0 +1,138 @@
+package org.compiler;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+
+/**
+ * Long-running compiler which serves compile requests, so that
+ * the JVM, the templates and the ANTLR caches stay warm.
+ * A request is a single line containing compiler arguments as they
+ * would be passed on the command line, e.g. "-fparallel prog.css -o prog.ll".
+ * A response is a line "ok N" or "error N" followed by N bytes of UTF-8 text.
+ * The text is the generated code if no output file was requested,
+ * the error message if the compilation failed and empty otherwise.
+ */
+public class CompileServer {
+    private record Response(boolean ok, String text) {
+
+    }
+
+    private final Compiler compiler = new Compiler();
+    /* Java 17 has no virtual threads, threads are reused instead */
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CompileServer() {
+
+    }
+
+    /**
+     * Compiles a program described by a request line.
+     */
+    private Response handle(String request) {
+        String trimmed = request.trim();
+        CompilerOptions options;
+        try {
+            options = CompilerOptions.parse(trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+"));
+        } catch (CompilerOptions.UsageException e) {
+            return new Response(false, e.getMessage());
+        }
+        if (options.batch)
+            return new Response(false, "Only a single input file can be compiled by a request.");
+
+        try {
+            if (options.outputFile == null) {
+                StringWriter out = new StringWriter();
+                compiler.compile(Compiler.openInput(options.inputFile()), out, options);
+                return new Response(true, out.toString());
+            }
+            compiler.compileFile(options.inputFile(), options.outputFile, options);
+            return new Response(true, "");
+        } catch (IOException e) {
+            return new Response(false, "Couldn't write the output file.");
+        } catch (CompilationException e) {
+            return new Response(false, e.getMessage());
+        } catch (RuntimeException | StackOverflowError e) {
+            return new Response(false, "Fatal compilation error.");
+        }
+    }
+
+    private static void writeResponse(OutputStream out, Response response) throws IOException {
+        byte[] text = response.text().getBytes(StandardCharsets.UTF_8);
+        String header = (response.ok() ? "ok " : "error ") + text.length + "\n";
+        out.write(header.getBytes(StandardCharsets.UTF_8));
+        out.write(text);
+        out.flush();
+    }
+
+    /**
+     * Serves requests read from the input stream until its end.
+     * Requests are compiled concurrently, responses are written
+     * in the same order as the requests were read.
+     */
+    public void serve(InputStream input, OutputStream output) throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        OutputStream out = new BufferedOutputStream(output);
+        /* an empty future marks the end of the input */
+        CompletableFuture<Response> end = new CompletableFuture<>();
+        LinkedBlockingQueue<CompletableFuture<Response>> pending = new LinkedBlockingQueue<>();
+        Future<?> writer = executor.submit(() -> {
+            for (CompletableFuture<Response> response = pending.take(); response != end; response = pending.take())
+                writeResponse(out, response.join());
+            return null;
+        });
+
+        String request;
+        while ((request = in.readLine()) != null) {
+            String line = request;
+            pending.put(CompletableFuture.supplyAsync(() -> handle(line), executor));
+        }
+        pending.put(end);
+        try {
+            writer.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Accepts connections on a Unix domain socket. Connections are
+     * served concurrently, requests of a single connection one by one,
+     * clients open more connections to compile more programs at once.
+     */
+    public void listen(Path socketPath) throws IOException {
+        Files.deleteIfExists(socketPath);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            while (true) {
+                SocketChannel client = server.accept();
+                executor.execute(() -> serveConnection(client));
+            }
+        }
+    }
+
+    private void serveConnection(SocketChannel client) {
+        try (client) {
+            BufferedReader in = new BufferedReader(Channels.newReader(client, StandardCharsets.UTF_8));
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(client));
+            String request;
+            while ((request = in.readLine()) != null)
+                writeResponse(out, handle(request));
+        } catch (IOException e) {
+            /* the client disconnected, nothing to report */
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.compiler;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.compiler.ir.InlinePass;
+import org.gen.cssLexer;
+import org.gen.cssParser;
+import org.stringtemplate.v4.STGroup;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Compiles programs to LLVM code. Templates are loaded once
+ * and ANTLR keeps its DFA caches for the whole life of the JVM,
+ * so an instance can be reused for many compilations. Every
+ * compilation gets a fresh context, so compilations may run concurrently.
+ */
+public class Compiler {
+    private final STGroup templateGroup;
+
+    public Compiler() {
+        templateGroup = GlobalContext.loadTemplates();
+    }
+
+    /**
+     * Collects syntax errors reported by the lexer and the parser.
+     */
+    private static class SyntaxErrorCollector extends BaseErrorListener {
+        private final ArrayList<String> errors = new ArrayList<>();
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+                                int line, int charPositionInLine, String msg, RecognitionException e) {
+            errors.add("line " + line + ":" + charPositionInLine + " " + msg);
+        }
+    }
+
+    /**
+     * Compiles a program and writes the LLVM code to the writer.
+     * @throws CompilationException if the program contains an error
+     * @throws java.io.UncheckedIOException if writing the output fails in stream mode
+     */
+    public void compile(CharStream input, Writer output, CompilerOptions options) throws IOException {
+        compile(input, output, options, null);
+    }
+
+    /**
+     * Compiles a program reusing code of functions from previous compilations.
+     * @param cache might be null
+     */
+    public void compile(CharStream input, Writer output, CompilerOptions options,
+                        FunctionCache cache) throws IOException {
+        TimeReport timeReport = new TimeReport(input.getSourceName());
+        ParseTree tree = parse(input, options, timeReport);
+        GlobalContext globalContext = new GlobalContext(templateGroup, options, timeReport);
+        MainVisitor mainVisitor = MainVisitor.getInstance(globalContext);
+        mainVisitor.setParallelism(options.parallelism);
+        mainVisitor.setFunctionCache(cache);
+        if (options.stream) {
+            mainVisitor.setOutput(output);
+            mainVisitor.visit(tree);
+        } else {
+            String code = mainVisitor.visit(tree);
+            timeReport.time(TimeReport.Phase.OUTPUT, () -> output.write(code));
+        }
+        if (options.inlineReport && globalContext.inliner != null)
+            System.err.print(inlineReport((cssParser.ProgramContext) tree, globalContext.inliner));
+        if (options.passReport)
+            System.err.print(globalContext.passManager.report());
+        if (options.timeReport)
+            System.err.print(timeReport.report());
+    }
+
+    /**
+     * Lists the calls inlined into every function in program order.
+     */
+    private static String inlineReport(cssParser.ProgramContext program, InlinePass inliner) {
+        StringBuilder report = new StringBuilder();
+        for (cssParser.FunctionContext function : program.function()) {
+            for (String line : inliner.report(function.ID().getText()))
+                report.append(line).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Parses a program in two stages. The fast SLL prediction is tried first
+     * and it gives up at the first syntax error. Only then the input is parsed
+     * again with the full LL prediction, which is needed to parse some
+     * inputs correctly and to report syntax errors properly.
+     * @throws CompilationException if the program contains a syntax error
+     */
+    private ParseTree parse(CharStream input, CompilerOptions options, TimeReport timeReport) {
+        long start = System.nanoTime();
+        SyntaxErrorCollector syntaxErrors = new SyntaxErrorCollector();
+        cssLexer lexer = new cssLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(syntaxErrors);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        /* the whole input is tokenized first, so that the lexer is measured separately */
+        timeReport.time(TimeReport.Phase.LEXER, tokens::fill);
+        cssParser parser = new cssParser(tokens);
+        parser.setProfile(options.parseStats);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+
+        ParseTree tree = timeReport.time(TimeReport.Phase.PARSER,
+                () -> parseProgram(parser, tokens, syntaxErrors));
+        /* the prediction mode is switched only by the second stage */
+        boolean fallback = parser.getInterpreter().getPredictionMode() == PredictionMode.LL;
+        if (options.parseStats)
+            System.err.print(ParseStatistics.report(input.getSourceName(), parser, tokens.size(),
+                    fallback, System.nanoTime() - start));
+        if (!syntaxErrors.errors.isEmpty())
+            throw new CompilationException(String.join("\n", syntaxErrors.errors));
+        return tree;
+    }
+
+    private static ParseTree parseProgram(cssParser parser, CommonTokenStream tokens,
+                                          SyntaxErrorCollector syntaxErrors) {
+        try {
+            return parser.program();
+        } catch (ParseCancellationException e) {
+            tokens.seek(0);
+            parser.reset();
+            parser.addErrorListener(syntaxErrors);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.program();
+        }
+    }
+
+    /**
+     * Opens a source file.
+     * @throws CompilationException if the file cannot be read
+     */
+    public static CharStream openInput(String inputFile) {
+        try {
+            return CharStreams.fromFileName(inputFile);
+        } catch (IOException e) {
+            throw new CompilationException("Couldn't open the input file.");
+        }
+    }
+
+    /**
+     * Compiles a source file to an output file. Input and output errors
+     * are reported by CompilationException as well, so that a caller
+     * compiling many files can report the failure of a single file.
+     * The output file is removed if the compilation fails.
+     * @return number of characters of the source file
+     */
+    public int compileFile(String inputFile, String outputFile, CompilerOptions options) {
+        return compileFile(inputFile, outputFile, options, null);
+    }
+
+    /**
+     * Compiles a source file to an output file using a function cache.
+     * @param cache might be null
+     * @return number of characters of the source file
+     */
+    public int compileFile(String inputFile, String outputFile, CompilerOptions options,
+                           FunctionCache cache) {
+        CharStream in = openInput(inputFile);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(outputFile), 1 << 16)) {
+            compile(in, out, options, cache);
+        } catch (IOException | UncheckedIOException e) {
+            removeOutput(outputFile);
+            throw new CompilationException("Couldn't write the output file.");
+        } catch (RuntimeException e) {
+            removeOutput(outputFile);
+            throw e;
+        }
+        return in.size();
+    }
+
+    private static void removeOutput(String outputFile) {
+        try {
+            Files.deleteIfExists(Path.of(outputFile));
+        } catch (IOException e) {
+            /* the original error is more important */
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Options of a compilation parsed from command line arguments.
+ */
+public class CompilerOptions {
+    /**
+     * Thrown when the arguments are invalid. Contains
+     * the exit status used by the command line compiler.
+     */
+    public static class UsageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int exitStatus;
+
+        public UsageException(String message, int exitStatus) {
+            super(message);
+            this.exitStatus = exitStatus;
+        }
+
+        public int getExitStatus() {
+            return exitStatus;
+        }
+    }
+
+    /**
+     * Where the elements of arrays declared with sizes are allocated.
+     */
+    public enum ArrayAllocation {
+        /* always on the stack */
+        STACK,
+        /* always in the arena of the runtime library */
+        ARENA,
+        /* in the arena if the array is larger than arenaThreshold */
+        AUTO
+    }
+
+    /* source files in the order they were given */
+    public final ArrayList<String> inputFiles = new ArrayList<>();
+    /* output files of the inputs given by a manifest, null entries if not specified */
+    public final ArrayList<String> outputFiles = new ArrayList<>();
+    /* null if the output file was not specified */
+    public String outputFile = null;
+    /* compile each input to its own output file */
+    public boolean batch = false;
+    /* number of files compiled concurrently in batch mode */
+    public int jobs = Runtime.getRuntime().availableProcessors();
+    /* write functions to the output file as soon as they are generated */
+    public boolean stream = false;
+    /* number of threads generating functions */
+    public int parallelism = 1;
+    /* recompile the input whenever it changes */
+    public boolean watch = false;
+    /* print parse time and statistics of parser decisions */
+    public boolean parseStats = false;
+    /* print the time and memory taken by the phases of the compilation and by every function */
+    public boolean timeReport = false;
+    public ArrayAllocation arrayAllocation = ArrayAllocation.STACK;
+    /* size in bytes of the largest array allocated on the stack in AUTO mode */
+    public long arenaThreshold = 64 * 1024;
+    /* lowest optimization level running each pass, see isPassEnabled() */
+    private static final Map<String, Integer> PASS_LEVELS = Map.of(
+            "mem2reg", 1, "tailcall", 1, "dce", 1, "inline", 2, "licm", 2);
+
+    /* selects the passes run on every function, 0 runs none */
+    public int optimizationLevel = 2;
+    /* passes enabled or disabled by name regardless of the optimization level */
+    public final HashMap<String, Boolean> passes = new HashMap<>();
+    /* print the time taken by every pass and how it changed the number of instructions */
+    public boolean passReport = false;
+    /* largest number of instructions of an inlined function */
+    public int inlineThreshold = 24;
+    /* print the inlined calls of every function */
+    public boolean inlineReport = false;
+    /* call the string functions of the runtime library instead of those of libstring.css */
+    public boolean builtinStrings = true;
+
+    /**
+     * Parses compiler arguments, i.e. options and the input files.
+     */
+    public static CompilerOptions parse(String[] args) throws UsageException {
+        CompilerOptions options = new CompilerOptions();
+        int i = 0;
+        while (i < args.length) {
+            if (args[i].equals("-fstream")) {
+                options.stream = true;
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-fparse-stats")) {
+                options.parseStats = true;
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-ftime-report")) {
+                options.timeReport = true;
+                ++i;
+                continue;
+            }
+            if (args[i].startsWith("-farray-alloc=")) {
+                switch (args[i].substring("-farray-alloc=".length())) {
+                    case "stack" -> options.arrayAllocation = ArrayAllocation.STACK;
+                    case "arena" -> options.arrayAllocation = ArrayAllocation.ARENA;
+                    case "auto" -> options.arrayAllocation = ArrayAllocation.AUTO;
+                    default -> throw new UsageException("Invalid array allocation mode.", 4);
+                }
+                ++i;
+                continue;
+            }
+            if (args[i].startsWith("-farena-threshold=")) {
+                try {
+                    options.arenaThreshold = Long.parseLong(args[i].substring("-farena-threshold=".length()));
+                } catch (NumberFormatException e) {
+                    options.arenaThreshold = -1;
+                }
+                if (options.arenaThreshold < 0)
+                    throw new UsageException("Invalid arena threshold.", 4);
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-fno-builtin-strings")) {
+                options.builtinStrings = false;
+                ++i;
+                continue;
+            }
+            if (args[i].startsWith("-O")) {
+                switch (args[i].substring("-O".length())) {
+                    case "0" -> options.optimizationLevel = 0;
+                    case "1" -> options.optimizationLevel = 1;
+                    case "2" -> options.optimizationLevel = 2;
+                    default -> throw new UsageException("Invalid optimization level.", 4);
+                }
+                ++i;
+                continue;
+            }
+            if (args[i].startsWith("-fpass=") || args[i].startsWith("-fno-pass=")) {
+                boolean enable = args[i].startsWith("-fpass=");
+                String pass = args[i].substring(args[i].indexOf('=') + 1);
+                if (!PASS_LEVELS.containsKey(pass))
+                    throw new UsageException("Unknown pass " + pass + ".", 4);
+                options.passes.put(pass, enable);
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-fpass-report")) {
+                options.passReport = true;
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-fno-inline")) {
+                options.passes.put("inline", false);
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-finline-report")) {
+                options.inlineReport = true;
+                ++i;
+                continue;
+            }
+            if (args[i].startsWith("-finline-threshold=")) {
+                try {
+                    options.inlineThreshold = Integer.parseInt(args[i].substring("-finline-threshold=".length()));
+                } catch (NumberFormatException e) {
+                    options.inlineThreshold = -1;
+                }
+                if (options.inlineThreshold < 0)
+                    throw new UsageException("Invalid inline threshold.", 4);
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-fwatch")) {
+                options.watch = true;
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-fparallel")) {
+                options.parallelism = Runtime.getRuntime().availableProcessors();
+                ++i;
+                continue;
+            }
+            if (args[i].startsWith("-fparallel=")) {
+                try {
+                    options.parallelism = Integer.parseInt(args[i].substring("-fparallel=".length()));
+                } catch (NumberFormatException e) {
+                    options.parallelism = 0;
+                }
+                if (options.parallelism < 1)
+                    throw new UsageException("Invalid number of threads.", 4);
+                ++i;
+                continue;
+            }
+            if (args[i].startsWith("-j")) {
+                String value = args[i].length() > 2 ? args[i].substring(2) : null;
+                if (value == null) {
+                    if (i >= args.length - 1)
+                        throw new UsageException("Missing number of jobs.", 4);
+                    value = args[++i];
+                }
+                try {
+                    options.jobs = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    options.jobs = 0;
+                }
+                if (options.jobs < 1)
+                    throw new UsageException("Invalid number of jobs.", 4);
+                ++i;
+                continue;
+            }
+            if (args[i].startsWith("@")) {
+                options.readManifest(args[i].substring(1));
+                ++i;
+                continue;
+            }
+            if (args[i].equals("-o")) {
+                if (i >= args.length - 1)
+                    throw new UsageException("Missing output file name.", 4);
+                options.outputFile = args[i + 1];
+                i += 2;
+                continue;
+            }
+            options.inputFiles.add(args[i++]);
+            options.outputFiles.add(null);
+        }
+        if (options.inputFiles.isEmpty())
+            throw new UsageException("No input file specified.", 6);
+        if (options.inputFiles.size() > 1)
+            options.batch = true;
+        if (options.batch && options.outputFile != null)
+            throw new UsageException("Option -o cannot be used with multiple input files.", 4);
+        if (options.batch && options.watch)
+            throw new UsageException("Option -fwatch cannot be used with multiple input files.", 4);
+        return options;
+    }
+
+    /**
+     * Adds inputs listed in a manifest file and switches to batch mode.
+     * Every line contains an input file optionally followed by its output
+     * file. Empty lines and lines starting with '#' are ignored.
+     */
+    private void readManifest(String manifestFile) throws UsageException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Path.of(manifestFile));
+        } catch (IOException e) {
+            throw new UsageException("Couldn't read the manifest file.", 5);
+        }
+        batch = true;
+        for (int i = 0; i < lines.size(); ++i) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] files = line.split("\\s+");
+            if (files.length > 2)
+                throw new UsageException("Invalid manifest line " + (i + 1) + ".", 4);
+            inputFiles.add(files[0]);
+            outputFiles.add(files.length == 2 ? files[1] : null);
+        }
+    }
+
+    /**
+     * Returns true if the pass of the given name is to be run, i.e. if it is
+     * enabled by name or belongs to the optimization level and is not disabled.
+     */
+    public boolean isPassEnabled(String pass) {
+        Boolean enabled = passes.get(pass);
+        if (enabled != null)
+            return enabled;
+        return optimizationLevel >= PASS_LEVELS.get(pass);
+    }
+
+    /**
+     * Returns the input file of a single file compilation.
+     */
+    public String inputFile() {
+        return inputFiles.get(0);
+    }
+
+    /**
+     * Returns the output file of the i-th input in batch mode.
+     * Unless specified by the manifest, the extension of the input
+     * is replaced by '.ll'.
+     */
+    public String batchOutputFile(int i) {
+        if (outputFiles.get(i) != null)
+            return outputFiles.get(i);
+        String input = inputFiles.get(i);
+        if (input.endsWith(".css"))
+            return input.substring(0, input.length() - ".css".length()) + ".ll";
+        return input + ".ll";
+    }
+}
@@ -0,0 +1,13 @@
+package org.compiler;
+
+import org.compiler.ir.Code;
+
+/**
+ * Represents a condition returned by ConditionVisitor.
+ * @param code code which evaluates the condition and jumps
+ *             to one of the labels given to the visitor
+ * @param type type of the expression
+ * @param dimensionCount dimension count of the expression
+ */
+public record Condition(Code code, VarType type, int dimensionCount) {
+}
@@ -0,0 +1,138 @@
+package org.compiler;
+
+import org.antlr.v4.runtime.tree.RuleNode;
+import org.compiler.ir.*;
+import org.gen.*;
+
+/**
+ * Generates jumping code for expressions used as conditions.
+ * Instead of computing a value which is then compared to zero,
+ * the code jumps directly to the label of the true or false branch.
+ * Operands of logical operators are evaluated only if needed,
+ * i.e. the right operand of && is skipped when the left one is false.
+ * One instance exists per context.
+ */
+public class ConditionVisitor extends cssBaseVisitor<Condition> {
+    public static ConditionVisitor getInstance(GlobalContext globalContext) {
+        return globalContext.getVisitor(ConditionVisitor.class, ConditionVisitor::new);
+    }
+
+    private final GlobalContext globalContext;
+    /* inherited attributes, labels the condition jumps to */
+    private String trueLabel;
+    private String falseLabel;
+
+    private ConditionVisitor(GlobalContext globalContext) {
+        this.globalContext = globalContext;
+    }
+
+    /**
+     * Generates code which jumps to trueLabel if the expression
+     * is non-zero and to falseLabel otherwise.
+     */
+    public Condition generate(cssParser.ExpressionContext ctx, String trueLabel, String falseLabel) {
+        String parentTrueLabel = this.trueLabel;
+        String parentFalseLabel = this.falseLabel;
+        this.trueLabel = trueLabel;
+        this.falseLabel = falseLabel;
+        try {
+            return visit(ctx);
+        } finally {
+            this.trueLabel = parentTrueLabel;
+            this.falseLabel = parentFalseLabel;
+        }
+    }
+
+    /**
+     * Expressions other than the ones below are evaluated
+     * to a value which is compared to zero. A constant value
+     * is decided by the compiler, i.e. the jump is unconditional.
+     */
+    @Override
+    public Condition visitChildren(RuleNode node) {
+        Expression expression = ExpressionVisitor.getInstance(globalContext).visit(node);
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(expression.code());
+        /* the caller reports the error */
+        if (expression.type() == VarType.VOID || expression.dimensionCount() != 0)
+            return new Condition(builder.code(), expression.type(), expression.dimensionCount());
+
+        if (expression.returnRegister() instanceof Constant constant) {
+            builder.branch(constant.value() != 0 ? trueLabel : falseLabel);
+        } else {
+            Register condition = builder.compare(CompareInstruction.Predicate.NE, expression.returnRegister(),
+                    new Constant(globalContext.variableTypeToLLType(expression.type()), 0));
+            builder.conditionalBranch(condition, trueLabel, falseLabel);
+        }
+        return new Condition(builder.code(), expression.type(), 0);
+    }
+
+    @Override
+    public Condition visitSubExpr(cssParser.SubExprContext ctx) {
+        return visit(ctx.expression());
+    }
+
+    /**
+     * Logical not swaps the labels.
+     */
+    @Override
+    public Condition visitUnOpExpr(cssParser.UnOpExprContext ctx) {
+        if (ctx.unOp.getType() != cssParser.LOGICAL_NOT)
+            return visitChildren(ctx);
+        Condition condition = generate(ctx.expression(), falseLabel, trueLabel);
+        ExpressionVisitor.getInstance(globalContext).checkUnOpOperand(condition.type(), condition.dimensionCount());
+        return new Condition(condition.code(), condition.type(), 0);
+    }
+
+    /**
+     * Generates a comparison whose i1 result is used
+     * by the branch, i.e. it is not extended to an integer.
+     */
+    private Condition generateComparison(CompareInstruction.Predicate predicate, cssParser.BinOpExprContext ctx) {
+        ExpressionVisitor expressionVisitor = ExpressionVisitor.getInstance(globalContext);
+        Expression first = expressionVisitor.visit(ctx.expression(0));
+        Expression second = expressionVisitor.visit(ctx.expression(1));
+        expressionVisitor.checkBinOpOperands(first.type(), first.dimensionCount(),
+                second.type(), second.dimensionCount());
+
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(first.code());
+        builder.append(second.code());
+        if (first.returnRegister() instanceof Constant lhs && second.returnRegister() instanceof Constant rhs) {
+            builder.branch(ConstantFolder.compare(predicate, lhs, rhs).value() != 0 ? trueLabel : falseLabel);
+        } else {
+            Register condition = builder.compare(predicate, first.returnRegister(), second.returnRegister());
+            builder.conditionalBranch(condition, trueLabel, falseLabel);
+        }
+        return new Condition(builder.code(), first.type(), 0);
+    }
+
+    /**
+     * Comparisons branch on their result directly. The left operand
+     * of a logical operation jumps either to the right operand
+     * or directly to the result.
+     */
+    @Override
+    public Condition visitBinOpExpr(cssParser.BinOpExprContext ctx) {
+        int operator = ctx.binOp.getType();
+        CompareInstruction.Predicate predicate = ExpressionVisitor.comparisonPredicate(operator);
+        if (predicate != null)
+            return generateComparison(predicate, ctx);
+        if (operator != cssParser.LOGICAL_AND && operator != cssParser.LOGICAL_OR)
+            return visitChildren(ctx);
+
+        String rightLabel = globalContext.genNewLabel();
+        Condition left = operator == cssParser.LOGICAL_AND ?
+                generate(ctx.expression(0), rightLabel, falseLabel) :
+                generate(ctx.expression(0), trueLabel, rightLabel);
+        Condition right = visit(ctx.expression(1));
+        ExpressionVisitor.getInstance(globalContext).checkBinOpOperands(left.type(), left.dimensionCount(),
+                right.type(), right.dimensionCount());
+
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(left.code());
+        builder.label(rightLabel);
+        builder.append(right.code());
+        return new Condition(builder.code(), left.type(), 0);
+    }
+}
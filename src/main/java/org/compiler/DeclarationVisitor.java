@@ -0,0 +1,235 @@
+package org.compiler;
+
+import org.compiler.ir.*;
+import org.gen.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Visits variable declarations and returns code which
+ * allocates memory for the declared variables.
+ */
+public class DeclarationVisitor extends cssBaseVisitor<Code> {
+	public static DeclarationVisitor getInstance(GlobalContext globalContext) {
+		return globalContext.getVisitor(DeclarationVisitor.class, DeclarationVisitor::new);
+	}
+
+	private final GlobalContext globalContext;
+
+	private DeclarationVisitor(GlobalContext globalContext) {
+		this.globalContext = globalContext;
+	}
+
+	/**
+	 * Sets inherited attribute currentDeclarationType and visits
+	 * children (declAssign) which perform the allocation itself.
+	 * @param ctx the parse tree
+	 */
+	@Override
+	public Code visitVarDeclBlock(cssParser.VarDeclBlockContext ctx) {
+		VarType type = TypeVisitor.getInstance().visit(ctx.type());
+		/* set the inherited attribute */
+		globalContext.setCurrentDeclarationType(type);
+		Code code = new Code();
+		for (int i = 0; i < ctx.declAssign().size(); ++i) {
+			code.append(visit(ctx.declAssign(i)));
+		}
+		return code;
+	}
+
+	private static int elementSize(VarType type) {
+		return type == VarType.BYTE ? 1 : 4;
+	}
+
+	/**
+	 * Allocates memory in the arena of the runtime library. The memory
+	 * is released once the code block declaring the array is left.
+	 */
+	private Value allocateInArena(IrBuilder builder, String llType, Value bytes) {
+		++globalContext.arenaAllocations;
+		globalContext.functionArenaMark();
+		Register memory = builder.call("i8*", "__css_arena_alloc", List.of(bytes));
+		if (llType.equals("i8"))
+			return memory;
+		return builder.cast(CastInstruction.Operator.BITCAST, memory, Types.pointerTo(llType));
+	}
+
+	/**
+	 * Allocates memory for the elements of an array on the stack or in the arena,
+	 * depending on CompilerOptions.arrayAllocation. In the AUTO mode, the size
+	 * of an array is compared with the threshold at runtime unless it is constant.
+	 * @param count number of the elements
+	 * @return pointer to the first element
+	 */
+	private Value allocateElements(IrBuilder builder, VarType type, Value count) {
+		String llType = globalContext.variableTypeToLLType(type);
+		CompilerOptions options = globalContext.options;
+		if (options.arrayAllocation == CompilerOptions.ArrayAllocation.STACK)
+			return builder.alloca(llType, count);
+
+		Value bytes = ExpressionVisitor.binary(builder, BinaryInstruction.Operator.MUL,
+				ExpressionVisitor.cast(builder, CastInstruction.Operator.SEXT, count, "i64"),
+				new Constant("i64", elementSize(type)));
+		if (options.arrayAllocation == CompilerOptions.ArrayAllocation.ARENA ||
+				(bytes instanceof Constant constant && constant.value() > options.arenaThreshold))
+			return allocateInArena(builder, llType, bytes);
+		if (bytes instanceof Constant)
+			return builder.alloca(llType, count);
+
+		String stackLabel = globalContext.genNewLabel();
+		String arenaLabel = globalContext.genNewLabel();
+		String endLabel = globalContext.genNewLabel();
+		Register large = builder.compare(CompareInstruction.Predicate.ULT,
+				new Constant("i64", options.arenaThreshold), bytes);
+		builder.conditionalBranch(large, arenaLabel, stackLabel);
+		builder.label(stackLabel);
+		Value onStack = builder.alloca(llType, count);
+		builder.branch(endLabel);
+		builder.label(arenaLabel);
+		Value inArena = allocateInArena(builder, llType, bytes);
+		builder.branch(endLabel);
+		builder.label(endLabel);
+		return builder.phi(List.of(onStack, inArena), List.of(stackLabel, arenaLabel));
+	}
+
+	/**
+	 * Allocates memory for all elements of an array at once. The elements
+	 * are stored in row-major order, i.e. element [i][j] of an array
+	 * of sizes [n][m] is at offset i * m + j. A one-dimensional array
+	 * is the pointer to the memory, a multi-dimensional one is a structure
+	 * holding the pointer and the strides, see GlobalContext.llArrayType.
+	 * @param var variable to allocate
+	 * @param sizes expressions representing sizes of the dimensions
+	 * @return code
+	 */
+	private Code allocateArray(Variable var, ArrayList<Expression> sizes) {
+		IrBuilder builder = globalContext.newBuilder();
+		for (Expression size : sizes)
+			builder.append(size.code());
+		if (sizes.size() == 1) {
+			var.setLlValue(allocateElements(builder, var.getType(), sizes.get(0).returnRegister()));
+			return builder.code();
+		}
+
+		/* stride of a dimension is the product of sizes of the following dimensions */
+		Value[] strides = new Value[sizes.size()];
+		strides[sizes.size() - 1] = new Constant("i32", 1);
+		for (int i = sizes.size() - 2; i >= 0; --i) {
+			Value size = ExpressionVisitor.extendToInt(builder, sizes.get(i + 1).returnRegister());
+			strides[i] = i == sizes.size() - 2 ? size :
+					ExpressionVisitor.binary(builder, BinaryInstruction.Operator.MUL, size, strides[i + 1]);
+		}
+		Value total = ExpressionVisitor.binary(builder, BinaryInstruction.Operator.MUL,
+				ExpressionVisitor.extendToInt(builder, sizes.get(0).returnRegister()), strides[0]);
+
+		ArrayList<Value> members = new ArrayList<>(sizes.size());
+		members.add(allocateElements(builder, var.getType(), total));
+		members.addAll(Arrays.asList(strides).subList(0, sizes.size() - 1));
+		var.setLlValue(builder.aggregate(globalContext.llArrayType(var.getType(), sizes.size()), members));
+		return builder.code();
+	}
+
+	/**
+	 * Visits children expression for array level/dimension
+	 * sizes and creates a list of them. It is then passed to the above function
+	 * to generate code for array allocation.
+	 */
+	private Code visitDeclAssignArray(cssParser.DeclAssignContext ctx, VarType type) {
+		ArrayList<Expression> sizes = new ArrayList<>(ctx.declTypeArray().size());
+		boolean containsNull = false, containsSome = false;
+		for (int i = 0; i < ctx.declTypeArray().size(); ++i) {
+			Expression size = ExpressionVisitor.getInstance(globalContext).visit(ctx.declTypeArray(i));
+			if (size == null) {
+				containsNull = true;
+			} else {
+				containsSome = true;
+				sizes.add(size);
+			}
+		}
+		/* every array must either contain all sizes of dimensions or none */
+		if (containsNull && containsSome) {
+			globalContext.handleFatalError("when declaring an array, either" +
+					"every dimension must have a specified size or none");
+		}
+
+		Variable var = new Variable(null, type, ctx.declTypeArray().size());
+		Expression assignValue = null;
+		if (ctx.expression() != null)
+			assignValue = ExpressionVisitor.getInstance(globalContext).visit(ctx.expression());
+
+		Code code;
+		/* an array whose size is to be allocated cannot be assigned another array */
+		if (!containsSome) {
+			if (assignValue != null) {
+				code = assignValue.code();
+				var.setLlValue(assignValue.returnRegister());
+				if (assignValue.type() != var.getType() || assignValue.dimensionCount() != var.getDimensionCount()) {
+					globalContext.handleFatalError("type mismatch at declaration of '" +
+							ctx.ID().getText() +
+							"'");
+				}
+			} else {
+				code = new Code();
+			}
+		} else {
+			code = allocateArray(var, sizes);
+			if (assignValue != null) {
+				globalContext.handleFatalError("cannot assign to an array with specified sizes at declaration");
+			}
+		}
+		globalContext.addToLastScope(ctx.ID().getText(), var);
+		return code;
+	}
+
+	/**
+	 * Generate code for variable allocation.
+	 * @param ctx the parse tree
+	 */
+	@Override
+	public Code visitDeclAssign(cssParser.DeclAssignContext ctx) {
+		Variable var = globalContext.getVariable(ctx.ID().getText());
+		VarType type = globalContext.getCurrentDeclarationType();
+		if (type == VarType.VOID)
+			globalContext.handleFatalError("cannot declare a variable '" +
+					ctx.ID().getText() +
+					"' of type void");
+
+		if (var != null) {
+			globalContext.handleFatalError("variable '" +
+					ctx.ID().getText() +
+					"' declared more than once");
+		}
+
+		/* use above functions to handle arrays */
+		if (!ctx.declTypeArray().isEmpty())
+			return visitDeclAssignArray(ctx, type);
+
+		IrBuilder builder = globalContext.newBuilder();
+		/* assign an expression to the newly allocated variable */
+		Expression assignValue = null;
+		if (ctx.expression() != null) {
+			assignValue = ExpressionVisitor.getInstance(globalContext).visit(ctx.expression());
+			if (assignValue.type() != type) {
+				globalContext.handleFatalError("type mismatch at declaration of '" +
+						ctx.ID().getText() +
+						"'");
+			}
+			builder.append(assignValue.code());
+			/* a variable which keeps its constant initial value needs no memory */
+			if (assignValue.returnRegister() instanceof Constant &&
+					!globalContext.assignedVariables.contains(ctx.ID().getText())) {
+				globalContext.addToLastScope(ctx.ID().getText(),
+						new Variable(assignValue.returnRegister(), type, 0));
+				return builder.code();
+			}
+		}
+		Register register = builder.alloca(globalContext.variableTypeToLLType(type), null);
+		if (assignValue != null)
+			builder.store(assignValue.returnRegister(), register);
+		var = new Variable(register, type, 0);
+		globalContext.addToLastScope(ctx.ID().getText(), var);
+		return builder.code();
+	}
+}
@@ -1,15 +1,18 @@
 package org.compiler;
 
+import org.compiler.ir.Code;
+import org.compiler.ir.Value;
+
 /**
  * This class is returned by ExpressionVisitor.
  */
 public class Expression{
-        private final String code;
-        private final String returnRegister;
+        private final Code code;
+        private final Value returnRegister;
         private final VarType type;
         private final int dimensionCount;
 
-        public Expression(String code, String returnRegister, VarType type, int dimensionCount)
+        public Expression(Code code, Value returnRegister, VarType type, int dimensionCount)
         {
                 this.code = code;
                 this.returnRegister = returnRegister;
@@ -17,11 +20,11 @@ public class Expression{
                 this.dimensionCount = dimensionCount;
         }
 
-        public String code() {
+        public Code code() {
                 return code;
         }
 
-        public String returnRegister() {
+        public Value returnRegister() {
                 return returnRegister;
         }
 
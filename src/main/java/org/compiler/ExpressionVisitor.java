@@ -1,21 +1,18 @@
 package org.compiler;
 
+import org.compiler.ir.*;
 import org.gen.*;
-import org.stringtemplate.v4.ST;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Visits expressions and returns instances of Expression.
- * Uses singleton design.
+ * One instance exists per context.
  */
 public class ExpressionVisitor extends cssBaseVisitor<Expression> {
-    private static ExpressionVisitor instance = null;
-
     public static ExpressionVisitor getInstance(GlobalContext globalContext) {
-        if (instance == null)
-            instance = new ExpressionVisitor(globalContext);
-        return instance;
+        return globalContext.getVisitor(ExpressionVisitor.class, ExpressionVisitor::new);
     }
 
     private final GlobalContext globalContext;
@@ -25,55 +22,47 @@ public class ExpressionVisitor extends cssBaseVisitor<Expression> {
     }
 
     /**
-     * Visit literal expressions.
+     * Visit literal expressions. Integer and character
+     * literals are returned as constants, operations on constants
+     * are folded by the functions below.
      * @param ctx the parse tree
      * @return Expression structure
      */
     @Override
     public Expression visitBaseExpr(cssParser.BaseExprContext ctx) {
-        String destReg = globalContext.getNewReg();
-        ST template;
         switch (ctx.base.getType()) {
             case cssParser.STRING:
-                String name = globalContext.getNewGlobalStringName();
-                ST code = globalContext.templateGroup.getInstanceOf("globalStringAccess");
-                code.add("dest", destReg);
-                /* length without quatation marks and with a null terminating byte */
-                code.add("size", String.valueOf(ctx.STRING().getText().length() - 2 + 1));
-                code.add("name", name);
-                StringBuilder sb = new StringBuilder(ctx.STRING().getText());
-                sb.deleteCharAt(ctx.STRING().getText().length() - 1);
-                sb.deleteCharAt(0);
-                /* add the string to the map of strings,
-                 * so that visitProgram function can define
-                 * them in the output file
-                 */
-                globalContext.globalStrings.put(name, sb.toString());
-                return new Expression(code.render(), destReg, VarType.BYTE,
-                        1);
+                /* the program may write to the array, so every literal gets its own */
+                Register address = globalContext.writableStringAddress(literalText(ctx));
+                return new Expression(new Code(), address, VarType.BYTE, 1);
             case cssParser.CHAR:
-                /*
-                 * constant propagation is not supported, always use add
-                 * to save the literal value
-                 */
-                template = globalContext.templateGroup.getInstanceOf("addition");
-                template.add("destReg", destReg);
-                template.add("type", "i8");
-                template.add("value1", "0");
+                /* literals are constants, no code is needed to evaluate them */
                 int c = ctx.CHAR().getText().charAt(1);
-                template.add("value2", String.valueOf(c));
-                return new Expression(template.render(), destReg, VarType.BYTE, 0);
+                return new Expression(new Code(), ConstantFolder.constant("i8", c), VarType.BYTE, 0);
             case cssParser.INT:
-                template = globalContext.templateGroup.getInstanceOf("addition");
-                template.add("destReg", destReg);
-                template.add("type", "i32");
-                template.add("value1", "0");
-                template.add("value2", String.valueOf(ctx.INT().getText()));
-                return new Expression(template.render(), destReg, VarType.INT, 0);
+                return new Expression(new Code(),
+                        ConstantFolder.constant("i32", Long.parseLong(ctx.INT().getText())), VarType.INT, 0);
         }
         return null;
     }
 
+    /**
+     * Returns a string literal which is only read, e.g. passed to strlen.
+     * Equal literals share one constant string and its address.
+     */
+    public Expression constantString(cssParser.BaseExprContext ctx) {
+        Register address = globalContext.stringAddress(literalText(ctx));
+        return new Expression(new Code(), address, VarType.BYTE, 1);
+    }
+
+    /**
+     * Returns the text of a string literal without the quotation marks.
+     */
+    private static String literalText(cssParser.BaseExprContext ctx) {
+        String text = ctx.STRING().getText();
+        return text.substring(1, text.length() - 1);
+    }
+
     /**
      * Evaluate expression representing a value of a variable.
      * Call function in VariableExpressionVisitor and convert
@@ -107,23 +96,19 @@ public class ExpressionVisitor extends cssBaseVisitor<Expression> {
             globalContext.handleFatalError("types of the value and the variable " +
                     "to be assigned don't match");
 
-        ST store = globalContext.templateGroup.getInstanceOf("store");
+        if (var.dimensionCount() > 0 && !ctx.variable().expression().isEmpty())
+            globalContext.handleFatalError("rows of a multi-dimensional array cannot be assigned");
+
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(assignValue.code());
+        builder.append(var.code());
         if (var.getPtrRegister() == null) {
             globalContext.assignNewRegister(var.getVarName(), assignValue.returnRegister());
         } else {
-            store.add("valueType", globalContext.llPointer(assignValue.type(), assignValue.dimensionCount()));
-            store.add("value", assignValue.returnRegister());
-            store.add("ptrType", globalContext.llPointer(var.type(), var.dimensionCount() + 1));
-            store.add("ptr", var.getPtrRegister());
-            store.add("emitCode", true);
+            builder.store(assignValue.returnRegister(), var.getPtrRegister());
         }
 
-        ST template = globalContext.templateGroup.getInstanceOf("concat");
-        template.add("code", assignValue.code());
-        template.add("code", var.code());
-        template.add("code", store.render());
-
-        return new Expression(template.render(), assignValue.returnRegister(), assignValue.type(),
+        return new Expression(builder.code(), assignValue.returnRegister(), assignValue.type(),
                 assignValue.dimensionCount());
     }
 
@@ -148,12 +133,12 @@ public class ExpressionVisitor extends cssBaseVisitor<Expression> {
             throw new RuntimeException("this never executes, just to suppress warnings");
         }
 
-        String argList = "";
-        StringBuilder code = new StringBuilder();
+        IrBuilder builder = globalContext.newBuilder();
+        ArrayList<Value> arguments = new ArrayList<>();
         /* argument list might be empty */
         if (ctx.funcParamList() != null) {
-            ST argListTemplate = globalContext.templateGroup.getInstanceOf("argList");
-            List<Expression> parameters = FuncParamListVisitor.getInstance(globalContext).visit(ctx.funcParamList());
+            List<Expression> parameters = FuncParamListVisitor.getInstance(globalContext)
+                    .visitArguments(ctx.funcParamList(), function);
             List<Variable> signature = function.getArguments();
             if (parameters.size() != function.getArgumentCount())
                 globalContext.handleFatalError("function argument count does not match signature of function '" +
@@ -166,46 +151,43 @@ public class ExpressionVisitor extends cssBaseVisitor<Expression> {
                         parameter.dimensionCount() != signatureVar.getDimensionCount())
                     globalContext.handleFatalError("argument list does not match signature of function '" +
                             ctx.ID().getText() + "'");
-                String parameterType = globalContext.llPointer(parameter.type(), parameter.dimensionCount());
                 /* add expression registers to the arguments */
-                argListTemplate.add("arg", parameterType + " " + parameter.returnRegister());
+                arguments.add(parameter.returnRegister());
                 /* append code which evaluates argument expressions */
-                code.append(parameter.code());
-                code.append('\n');
+                builder.append(parameter.code());
             }
-            argList = argListTemplate.render();
         }
 
         /* generate code for the function call itself */
-        ST functionCall = globalContext.templateGroup.getInstanceOf("functionCall");
-        functionCall.add("returnType", globalContext.variableTypeToLLType(function.getReturnType()));
-        functionCall.add("id", ctx.ID().getText());
-        functionCall.add("argList", argList);
-        functionCall.add("computeParameters", code.toString());
-        String destReg = "";
-        if (function.getReturnType() != VarType.VOID) {
-            destReg = globalContext.getNewReg();
-            functionCall.add("returnValue", true);
-            functionCall.add("destReg", destReg);
-        }
-        return new Expression(functionCall.render(), destReg, function.getReturnType(),
+        String callee = function.getSymbol() != null ? function.getSymbol() : ctx.ID().getText();
+        Register destReg = builder.call(globalContext.variableTypeToLLType(function.getReturnType()),
+                callee, arguments);
+        return new Expression(builder.code(), destReg, function.getReturnType(),
                 0);
     }
 
     /**
-     * Generic function which fills the template
-     * for type cast expression, since all
-     * templates have the same signature.
+     * Generic function which generates code
+     * for type cast expression.
      */
-    private Expression generateTypeCastExpr(String templateName, Expression value,
+    private Expression generateTypeCastExpr(CastInstruction.Operator operator, Expression value,
                                             VarType destinationType) {
-        ST template = globalContext.templateGroup.getInstanceOf(templateName);
-        String destReg = globalContext.getNewReg();
-        template.add("destReg", destReg);
-        template.add("value", value.returnRegister());
-        template.add("srcType", globalContext.llPointer(value.type(), value.dimensionCount()));
-        template.add("destType", globalContext.llPointer(destinationType, value.dimensionCount()));
-        return new Expression(value.code() + "\n" + template.render(), destReg,
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(value.code());
+        Value destReg;
+        if (value.dimensionCount() < 2) {
+            destReg = cast(builder, operator, value.returnRegister(),
+                    globalContext.llArrayType(destinationType, value.dimensionCount()));
+        } else {
+            /* cast the pointer to the elements, the strides stay the same */
+            ArrayList<Value> members = new ArrayList<>(value.dimensionCount());
+            members.add(builder.cast(operator, builder.extractValue(value.returnRegister(), 0),
+                    globalContext.llPointer(destinationType, 1)));
+            for (int i = 1; i < value.dimensionCount(); ++i)
+                members.add(builder.extractValue(value.returnRegister(), i));
+            destReg = builder.aggregate(globalContext.llArrayType(destinationType, value.dimensionCount()), members);
+        }
+        return new Expression(builder.code(), destReg,
                 destinationType, value.dimensionCount());
     }
 
@@ -231,174 +213,221 @@ public class ExpressionVisitor extends cssBaseVisitor<Expression> {
         /* array is type cast just as pointers are in C,
          * i.e. the underlying value is left untouched
          */
-        if (destinationDimensionCount > 0) {
-            String destReg = globalContext.getNewReg();
-            ST bitcast = globalContext.templateGroup.getInstanceOf("bitcast");
-            bitcast.add("destReg", destReg);
-            bitcast.add("srcType", globalContext.llPointer(expression.type(), expression.dimensionCount()));
-            bitcast.add("destType", globalContext.llPointer(destinationType, expression.dimensionCount()));
-            bitcast.add("value", expression.returnRegister());
-            return generateTypeCastExpr("bitcast", expression, destinationType);
-        }
+        if (destinationDimensionCount > 0)
+            return generateTypeCastExpr(CastInstruction.Operator.BITCAST, expression, destinationType);
 
         /* sign extend */
         if (sourceType == VarType.BYTE)
-            return generateTypeCastExpr("signExtend", expression, destinationType);
+            return generateTypeCastExpr(CastInstruction.Operator.SEXT, expression, destinationType);
 
         /* truncate */
         if (sourceType == VarType.INT)
-            return generateTypeCastExpr("truncate", expression, destinationType);
+            return generateTypeCastExpr(CastInstruction.Operator.TRUNC, expression, destinationType);
 
         /* all cases should be covered */
         return null;
     }
 
+    /**
+     * Checks that an operand of a unary operation
+     * is not of void type and has no dimensions.
+     */
+    void checkUnOpOperand(VarType type, int dimensionCount) {
+        if (type == VarType.VOID)
+            globalContext.handleFatalError("cannot apply unary operations on void type");
+        if (dimensionCount != 0)
+            globalContext.handleFatalError("unary operators can only be applied on non-array expressions.");
+    }
+
     /**
      * Visit unary operation expression.
      * @param ctx the parse tree
      */
     @Override
     public Expression visitUnOpExpr(cssParser.UnOpExprContext ctx) {
-        /* expression must not be of void type or have dimension count other than 0 */
         Expression expression = visit(ctx.expression());
-        if (expression.type() == VarType.VOID)
-            globalContext.handleFatalError("cannot apply unary operations on void type");
-        if (expression.dimensionCount() != 0)
-            globalContext.handleFatalError("unary operators can only be applied on non-array expressions.");
+        checkUnOpOperand(expression.type(), expression.dimensionCount());
 
-        String destReg = globalContext.getNewReg();
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(expression.code());
+        String type = globalContext.variableTypeToLLType(expression.type());
         switch (ctx.unOp.getType()) {
             case cssParser.LOGICAL_NOT:
-                ST logNot = globalContext.templateGroup.getInstanceOf("logicalNot");
-                logNot.add("type", globalContext.variableTypeToLLType(expression.type()));
-                logNot.add("value", expression.returnRegister());
-                logNot.add("destReg", destReg);
-                logNot.add("valueCode", expression.code());
-                return new Expression(logNot.render(), destReg, expression.type(), 0);
+                Value isZero = compare(builder, CompareInstruction.Predicate.EQ,
+                        new Constant(type, 0), expression.returnRegister());
+                Value notReg = cast(builder, CastInstruction.Operator.ZEXT, isZero, type);
+                return new Expression(builder.code(), notReg, expression.type(), 0);
             case cssParser.MINUS:
-                ST minus = globalContext.templateGroup.getInstanceOf("subtract");
-                minus.add("destReg", destReg);
-                minus.add("type", globalContext.variableTypeToLLType(expression.type()));
-                minus.add("value1", "0");
-                minus.add("value2", expression.returnRegister());
-                String resultCode = expression.code() + "\n" + minus.render();
-                return new Expression(resultCode, destReg, expression.type(), 0);
+                Value minusReg = binary(builder, BinaryInstruction.Operator.SUB,
+                        new Constant(type, 0), expression.returnRegister());
+                return new Expression(builder.code(), minusReg, expression.type(), 0);
         }
         return null;
     }
 
     /**
-     * This function fills the template for binary operation template.
-     * Warning: all binary operation templates must have the same
-     * signature
+     * Appends an arithmetic operation to the builder unless
+     * both operands are constants, then returns the folded result instead.
+     */
+    static Value binary(IrBuilder builder, BinaryInstruction.Operator operator, Value lhs, Value rhs) {
+        if (lhs instanceof Constant l && rhs instanceof Constant r) {
+            Constant result = ConstantFolder.binary(operator, l, r);
+            if (result != null)
+                return result;
+        }
+        return builder.binary(operator, lhs, rhs);
+    }
+
+    /**
+     * Appends a comparison to the builder unless it can be folded.
+     */
+    private static Value compare(IrBuilder builder, CompareInstruction.Predicate predicate, Value lhs, Value rhs) {
+        if (lhs instanceof Constant l && rhs instanceof Constant r)
+            return ConstantFolder.compare(predicate, l, r);
+        return builder.compare(predicate, lhs, rhs);
+    }
+
+    /**
+     * Appends a conversion to the builder unless it can be folded.
      */
-    private Expression genBinOpExpr(String templateName, String expressionCode,
-                                    Expression first, Expression second) {
-        String destReg = globalContext.getNewReg();
-        ST template = globalContext.templateGroup.getInstanceOf(templateName);
-        template.add("destReg", destReg);
-        template.add("type", globalContext.variableTypeToLLType(first.type()));
-        template.add("value1", first.returnRegister());
-        template.add("value2", second.returnRegister());
-        template.add("tmpReg", globalContext.getNewReg());
-        return new Expression(expressionCode + "\n" + template.render(), destReg,
-                first.type(), 0);
+    static Value cast(IrBuilder builder, CastInstruction.Operator operator, Value value,
+                      String destinationType) {
+        if (value instanceof Constant constant) {
+            Constant result = ConstantFolder.cast(operator, constant, destinationType);
+            if (result != null)
+                return result;
+        }
+        return builder.cast(operator, value, destinationType);
+    }
+
+    /**
+     * Sign extends a byte to an int, e.g. an array index or size.
+     */
+    static Value extendToInt(IrBuilder builder, Value value) {
+        if (value.type().equals("i32"))
+            return value;
+        return cast(builder, CastInstruction.Operator.SEXT, value, "i32");
+    }
+
+    /**
+     * Generates code for an arithmetic binary operation.
+     */
+    private Expression genBinOpExpr(BinaryInstruction.Operator operator, Expression first, Expression second) {
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(first.code());
+        builder.append(second.code());
+        Value destReg = binary(builder, operator, first.returnRegister(), second.returnRegister());
+        return new Expression(builder.code(), destReg, first.type(), 0);
+    }
+
+    /**
+     * Generates code for a comparison. The i1 result is
+     * extended to the type of the operands.
+     */
+    private Expression genCompareExpr(CompareInstruction.Predicate predicate, Expression first, Expression second) {
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(first.code());
+        builder.append(second.code());
+        Value tmpReg = compare(builder, predicate, first.returnRegister(), second.returnRegister());
+        Value destReg = cast(builder, CastInstruction.Operator.ZEXT, tmpReg,
+                globalContext.variableTypeToLLType(first.type()));
+        return new Expression(builder.code(), destReg, first.type(), 0);
+    }
+
+    /**
+     * Generates code for logical and/or. The operands are evaluated
+     * by jumping code of ConditionVisitor, so the right operand is skipped
+     * if the left one decides the result. The result is stored to memory
+     * in both branches, the mem2reg pass turns it to a phi instruction.
+     */
+    private Expression getLogicalBinop(cssParser.BinOpExprContext ctx) {
+        String trueLabel = globalContext.genNewLabel();
+        String falseLabel = globalContext.genNewLabel();
+        Condition condition = ConditionVisitor.getInstance(globalContext).generate(ctx, trueLabel, falseLabel);
+        String type = globalContext.variableTypeToLLType(condition.type());
+
+        /* the result does not depend on any computed value */
+        if (condition.code().instructions().size() == 1 &&
+                condition.code().instructions().get(0) instanceof BranchInstruction branch)
+            return new Expression(new Code(), new Constant(type, branch.target().equals(trueLabel) ? 1 : 0),
+                    condition.type(), 0);
+
+        IrBuilder builder = globalContext.newBuilder();
+        String endLabel = globalContext.genNewLabel();
+        Register result = builder.alloca(type, null);
+        builder.append(condition.code());
+        builder.label(trueLabel);
+        builder.store(new Constant(type, 1), result);
+        builder.branch(endLabel);
+        builder.label(falseLabel);
+        builder.store(new Constant(type, 0), result);
+        builder.branch(endLabel);
+        builder.label(endLabel);
+        Register destReg = builder.load(result);
+        return new Expression(builder.code(), destReg, condition.type(), 0);
     }
 
     /**
-     * This function fills the template for logical binary
-     * operation template. Template name is received as an argument.
-     * Warning: all logical binary operation templates
-     * must have the same signature
+     * Checks types of operands of a binary operation.
      */
-    private Expression getLogicalBinop(Expression left, Expression right, boolean isLogicalAnd) {
-        String destReg = globalContext.getNewReg();
-        ST template;
-        if (isLogicalAnd)
-            template = globalContext.templateGroup.getInstanceOf("logicalAnd");
-        else
-            template = globalContext.templateGroup.getInstanceOf("logicalOr");
-        template.add("destReg", destReg);
-        template.add("type", globalContext.variableTypeToLLType(left.type()));
-        template.add("value1", left.returnRegister());
-        template.add("value2", right.returnRegister());
-        template.add("tmp1", globalContext.getNewReg());
-        template.add("tmp2", globalContext.getNewReg());
-        template.add("tmp3", globalContext.getNewReg());
-        template.add("expressionCode1", left.code());
-        template.add("expressionCode2", right.code());
-        return new Expression(template.render(), destReg, left.type(), 0);
+    void checkBinOpOperands(VarType firstType, int firstDimensionCount,
+                            VarType secondType, int secondDimensionCount) {
+        /* check for void type expressions, for example void function call */
+        if (firstType == VarType.VOID || secondType == VarType.VOID)
+            globalContext.handleFatalError("binary operation operand cannot be of type void");
+        /* perform type check */
+        if ((firstType != secondType) ||
+                firstDimensionCount != secondDimensionCount ||
+                firstDimensionCount != 0)
+            globalContext.handleFatalError("type mismatch on binary operation");
     }
 
     /**
      * Visit binary operation expression.
-     * Warning: binary operation templates must
-     * share their template signatures
-     * Warning: binary logical operation templates
-     * must share their template signatures.
      * @param ctx the parse tree
      */
     @Override
     public Expression visitBinOpExpr(cssParser.BinOpExprContext ctx) {
+        /* logical operations evaluate their operands lazily */
+        if (ctx.binOp.getType() == cssParser.LOGICAL_AND || ctx.binOp.getType() == cssParser.LOGICAL_OR)
+            return getLogicalBinop(ctx);
+
         /* recursively evaluate both expressions */
         Expression first = visit(ctx.expression(0));
         Expression second = visit(ctx.expression(1));
-        /* check for void type expressions, for example void function call */
-        if (first.type() == VarType.VOID || second.type() == VarType.VOID)
-            globalContext.handleFatalError("binary operation operand cannot be of type void");
-        /* perform type check */
-        if ((first.type() != second.type()) ||
-                first.dimensionCount() != second.dimensionCount() ||
-                first.dimensionCount() != 0)
-            globalContext.handleFatalError("type mismatch on binary operation");
-
-        String expressionCode = first.code() + "\n" + second.code();
-        String templateName = "";
+        checkBinOpOperands(first.type(), first.dimensionCount(), second.type(), second.dimensionCount());
 
         switch (ctx.binOp.getType()) {
             /* binary operation expressions */
             case cssParser.MULT:
-                templateName = "multiplication";
-                break;
+                return genBinOpExpr(BinaryInstruction.Operator.MUL, first, second);
             case cssParser.PLUS:
-                templateName = "addition";
-                break;
+                return genBinOpExpr(BinaryInstruction.Operator.ADD, first, second);
             case cssParser.DIV:
-                templateName = "division";
-                break;
+                return genBinOpExpr(BinaryInstruction.Operator.SDIV, first, second);
             case cssParser.MINUS:
-                templateName = "subtract";
-                break;
+                return genBinOpExpr(BinaryInstruction.Operator.SUB, first, second);
             case cssParser.MOD:
-                templateName = "signedModulo";
-                break;
-            case cssParser.EQ:
-                templateName = "cmpEQ";
-                break;
-            case cssParser.NEQ:
-                templateName = "cmpNE";
-                break;
-            case cssParser.GT:
-                templateName = "cmpSGT";
-                break;
-            case cssParser.GTE:
-                templateName = "cmpSGE";
-                break;
-            case cssParser.LT:
-                templateName = "cmpSLT";
-                break;
-            case cssParser.LTE:
-                templateName = "cmpSLE";
-                break;
-            /* logical binary operation expressions */
-            case cssParser.LOGICAL_AND:
-                return getLogicalBinop(first, second, true);
-            case cssParser.LOGICAL_OR:
-                return getLogicalBinop(first, second, false);
+                return genBinOpExpr(BinaryInstruction.Operator.SREM, first, second);
         }
-        /* all cases should be covered */
-        /* fill in the template */
-        return genBinOpExpr(templateName, expressionCode, first, second);
+        /* the remaining operators are comparisons */
+        return genCompareExpr(comparisonPredicate(ctx.binOp.getType()), first, second);
+    }
+
+    /**
+     * Returns the predicate of a comparison operator
+     * or null if the operator is not a comparison.
+     */
+    static CompareInstruction.Predicate comparisonPredicate(int binOp) {
+        return switch (binOp) {
+            case cssParser.EQ -> CompareInstruction.Predicate.EQ;
+            case cssParser.NEQ -> CompareInstruction.Predicate.NE;
+            case cssParser.GT -> CompareInstruction.Predicate.SGT;
+            case cssParser.GTE -> CompareInstruction.Predicate.SGE;
+            case cssParser.LT -> CompareInstruction.Predicate.SLT;
+            case cssParser.LTE -> CompareInstruction.Predicate.SLE;
+            default -> null;
+        };
     }
 
     /**
@@ -417,6 +446,8 @@ public class ExpressionVisitor extends cssBaseVisitor<Expression> {
         if (size.dimensionCount() != 0) {
             globalContext.handleFatalError("size of an array dimension must not be an array");
         }
+        if (size.returnRegister() instanceof Constant constant && constant.value() < 0)
+            globalContext.handleFatalError("size of an array dimension must not be negative");
         return size;
     }
 }
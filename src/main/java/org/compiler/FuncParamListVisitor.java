@@ -7,16 +7,13 @@ import java.util.List;
 
 /**
  * Visits parameters (expressions) which are passed
- * as parameters to a function call. Uses singleton design pattern.
+ * as parameters to a function call. One instance exists per context.
  * This class returns list of expressions, therefore it must be separate
  * from ExpressionVisitor.
  */
 public class FuncParamListVisitor extends cssBaseVisitor<List<Expression>> {
-    private static FuncParamListVisitor instance = null;
     public static FuncParamListVisitor getInstance(GlobalContext globalContext) {
-        if (instance == null)
-            instance = new FuncParamListVisitor(globalContext);
-        return instance;
+        return globalContext.getVisitor(FuncParamListVisitor.class, FuncParamListVisitor::new);
     }
 
     private final GlobalContext globalContext;
@@ -32,9 +29,24 @@ public class FuncParamListVisitor extends cssBaseVisitor<List<Expression>> {
      */
     @Override
     public List<Expression> visitFuncParamList(cssParser.FuncParamListContext ctx) {
+        return visitArguments(ctx, null);
+    }
+
+    /**
+     * Visits the arguments of a call. String literals passed to arguments
+     * the called function only reads are constant strings.
+     * @param function called function, null if unknown
+     */
+    public List<Expression> visitArguments(cssParser.FuncParamListContext ctx, Function function) {
+        ExpressionVisitor expressionVisitor = ExpressionVisitor.getInstance(globalContext);
         ArrayList<Expression> parameters = new ArrayList<>(ctx.expression().size());
-        for (cssParser.ExpressionContext parameter : ctx.expression()) {
-            parameters.add(ExpressionVisitor.getInstance(globalContext).visit(parameter));
+        for (int i = 0; i < ctx.expression().size(); ++i) {
+            cssParser.ExpressionContext parameter = ctx.expression(i);
+            if (function != null && function.isReadOnly(i) && parameter instanceof cssParser.BaseExprContext base
+                    && base.STRING() != null)
+                parameters.add(expressionVisitor.constantString(base));
+            else
+                parameters.add(expressionVisitor.visit(parameter));
         }
         return parameters;
     }
@@ -11,10 +11,36 @@ public class Function {
     private final VarType returnType;
     private final ArrayList<Variable> argList;
     private final int argc;
+    /* position of the function definition in the program, -1 for library functions */
+    private final int declarationIndex;
+    /* identifies the generated code of the function, null if not computed, see MainVisitor.cacheKey() */
+    private String cacheKey = null;
+    /* name of the LLVM function if it differs from the name in the program, null otherwise */
+    private String symbol = null;
+    /* arguments from this position on are only read by the function, see isReadOnly() */
+    private int firstReadOnlyArgument = Integer.MAX_VALUE;
+
     public Function(VarType returnType, List<Variable> argList) {
+        this(returnType, argList, -1);
+    }
+
+    /**
+     * Creates a library function implemented by an LLVM function of a different name.
+     * @param symbol name of the LLVM function without '@', null if it is the name in the program
+     * @param firstReadOnlyArgument position of the first of the arguments the function
+     *                              does not write to, e.g. the source of strcpy
+     */
+    public Function(VarType returnType, List<Variable> argList, String symbol, int firstReadOnlyArgument) {
+        this(returnType, argList, -1);
+        this.symbol = symbol;
+        this.firstReadOnlyArgument = firstReadOnlyArgument;
+    }
+
+    public Function(VarType returnType, List<Variable> argList, int declarationIndex) {
         this.returnType = returnType;
         this.argList = new ArrayList<>(argList);
         argc = this.argList.size();
+        this.declarationIndex = declarationIndex;
     }
 
     public int getArgumentCount() {
@@ -28,4 +54,46 @@ public class Function {
     public VarType getReturnType() {
         return returnType;
     }
+
+    /**
+     * Returns the signature as a string, e.g. int(byte[], int).
+     */
+    public String signature() {
+        StringBuilder sb = new StringBuilder(returnType.toString().toLowerCase());
+        sb.append('(');
+        for (int i = 0; i < argc; ++i) {
+            if (i != 0)
+                sb.append(", ");
+            sb.append(argList.get(i).getType().toString().toLowerCase());
+            sb.append("[]".repeat(argList.get(i).getDimensionCount()));
+        }
+        return sb.append(')').toString();
+    }
+
+    public int getDeclarationIndex() {
+        return declarationIndex;
+    }
+
+    /**
+     * Returns the name of the called LLVM function, null if it is the name used by the program.
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns true if the function never writes to the array passed
+     * as the i-th argument, so a constant string may be passed.
+     */
+    public boolean isReadOnly(int i) {
+        return i >= firstReadOnlyArgument;
+    }
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
 }
@@ -1,5 +1,6 @@
 package org.compiler;
 
+import org.compiler.ir.Register;
 import org.gen.*;
 
 /**
@@ -9,11 +10,8 @@ import org.gen.*;
  * to the FunctionArgumentListVisitor.
  */
 public class FunctionArgumentVisitor extends cssBaseVisitor<Variable> {
-    private static FunctionArgumentVisitor instance = null;
     public static FunctionArgumentVisitor getInstance(GlobalContext globalContext) {
-        if (instance == null)
-            instance = new FunctionArgumentVisitor(globalContext);
-        return instance;
+        return globalContext.getVisitor(FunctionArgumentVisitor.class, FunctionArgumentVisitor::new);
     }
 
     private final GlobalContext globalContext;
@@ -46,8 +44,9 @@ public class FunctionArgumentVisitor extends cssBaseVisitor<Variable> {
         if (globalContext.getVariable(ctx.ID().getText()) != null)
             globalContext.handleFatalError("variable '" + ctx.ID().getText() +
                     "' already declared");
-        Variable var = new Variable(globalContext.getNewReg(),
-                type, getDimensionCount(ctx));
+        Register argument = new Register(globalContext.getNewReg(),
+                globalContext.llArrayType(type, getDimensionCount(ctx)));
+        Variable var = new Variable(argument, type, getDimensionCount(ctx));
         globalContext.addToLastScope(ctx.ID().getText(), var);
         return var;
     }
@@ -0,0 +1,83 @@
+package org.compiler;
+
+import org.compiler.ir.IrFunction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps code of functions generated by previous compilations of a program,
+ * so that unchanged functions are not generated again. A function is
+ * identified by a key which covers everything its code depends on,
+ * see MainVisitor.cacheKey(). The cache may be used by several threads.
+ */
+public class FunctionCache {
+    /**
+     * Generated code of a function and the global strings it defines.
+     * @param inlineBody body inlined into callers, null if the function is not inlined
+     * @param inlined calls inlined into the function, see InlinePass.report()
+     */
+    public record Entry(String code, Map<String, GlobalContext.GlobalString> globalStrings, IrFunction inlineBody,
+                        List<String> inlined) {
+
+    }
+
+    private HashMap<String, Entry> entries = new HashMap<>();
+    /* entries used by the current compilation */
+    private HashMap<String, Entry> used = new HashMap<>();
+    private int hits = 0;
+    private int misses = 0;
+
+    public FunctionCache() {
+
+    }
+
+    /**
+     * Returns the cached function or null if it has to be generated.
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        used.put(key, entry);
+        return entry;
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        used.put(key, entry);
+    }
+
+    /**
+     * Ends a compilation. After a successful compilation only the functions
+     * it used are kept, after a failed one nothing is forgotten,
+     * since the compilation might have stopped before some functions were visited.
+     */
+    public synchronized void finishCompilation(boolean success) {
+        if (success) {
+            entries = used;
+        } else {
+            entries.putAll(used);
+        }
+        used = new HashMap<>();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Returns the number of functions reused by the current compilation.
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of functions generated by the current compilation.
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+}
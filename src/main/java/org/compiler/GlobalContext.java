@@ -1,40 +1,141 @@
 package org.compiler;
 
+import org.compiler.ir.DeadCodeEliminationPass;
+import org.compiler.ir.InlinePass;
+import org.compiler.ir.IrBuilder;
+import org.compiler.ir.LoopInvariantCodeMotionPass;
+import org.compiler.ir.Mem2RegPass;
+import org.compiler.ir.PassManager;
+import org.compiler.ir.Register;
+import org.compiler.ir.TailCallPass;
+import org.compiler.ir.Value;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 
 /**
  * Contains various global variables and functions.
  * Represents the global context of the program.
+ * Every function is generated in its own context forked from
+ * the program context by forFunction(). The forked context shares
+ * the declared functions, templates and passes with the program context,
+ * but has its own scopes, counters, strings and visitors, so that
+ * functions can be generated by different threads.
  */
 public class GlobalContext {
-    /* hardcoded path to the template file */
-    public final STGroup templateGroup = new STGroupFile("src/main/resources/templates.stg");
+    public final STGroup templateGroup;
+    public final CompilerOptions options;
+    /* wall time and allocated memory of the phases and functions of the compilation */
+    public final TimeReport timeReport;
+    /* passes run on every function before it is printed */
+    public final PassManager passManager;
+    /* inlining of the program, null if disabled, see InlinePass */
+    public final InlinePass inliner;
     /* stack of scopes */
     private final LinkedList<ScopeInfo> scopeStack = new LinkedList<>();
-    /* map of declared functions */
-    private final HashMap<String, Function> functions = new HashMap<>();
-    /* map of declared strings (global by default) */
-    public final HashMap<String, String> globalStrings = new HashMap<>();
-
+    /* map of declared functions, shared by all contexts of the program */
+    private final HashMap<String, Function> functions;
+    /* number of arrays of the current function allocated in the arena */
+    public int arenaAllocations = 0;
     /*
-     * These names must match those in StatementVisitor
-     * in io handling visit functions. This map maps
-     * the format string name to its size.
-     */
-    public final Map<String, Integer> formatStringSizes = Map.of(
-            "@formatEndLine", 2,
-            "@formatStr", 3,
-            "@formatByte", 3,
-            "@formatInt", 3
-    );
-    /* counter used to generate a unique name for global strings */
-    private int globalStringCounter = 1;
+     * position of the arena saved at the beginning of the current function,
+     * null if the function does not use the arena yet, see arenaMark()
+     */
+    private Register functionArenaMark = null;
+    /* names of variables assigned in the current function, see AssignedVariablesVisitor */
+    public final HashSet<String> assignedVariables = new HashSet<>();
+    /* map of names of the strings used by the current function to their definitions */
+    public final LinkedHashMap<String, GlobalString> globalStrings = new LinkedHashMap<>();
+    /* registers holding the addresses of the strings by their names, see stringAddress() */
+    private final LinkedHashMap<String, Register> stringAddresses = new LinkedHashMap<>();
+    /* counter used to generate a unique name for writable strings */
+    private int writableStringCounter = 1;
+    /* visitors bound to this context */
+    private final HashMap<Class<?>, Object> visitors = new HashMap<>();
+    /* position of the generated function in the program, see getFunction() */
+    private final int functionIndex;
+
+    /**
+     * @param templateGroup loaded templates, might be shared by several compilations
+     * @param timeReport measures the phases of the compilation
+     */
+    public GlobalContext(STGroup templateGroup, CompilerOptions options, TimeReport timeReport) {
+        this.templateGroup = templateGroup;
+        this.options = options;
+        this.timeReport = timeReport;
+        inliner = options.isPassEnabled("inline") ? new InlinePass(options.inlineThreshold) : null;
+        passManager = new PassManager();
+        if (options.passReport)
+            passManager.collectStatistics();
+        if (options.isPassEnabled("mem2reg"))
+            passManager.add(new Mem2RegPass());
+        if (options.isPassEnabled("tailcall"))
+            passManager.add(new TailCallPass());
+        if (options.isPassEnabled("dce"))
+            passManager.add(new DeadCodeEliminationPass());
+        if (inliner != null)
+            passManager.add(inliner);
+        if (options.isPassEnabled("licm"))
+            passManager.add(new LoopInvariantCodeMotionPass());
+        /* inlining leaves results behind which the caller does not use */
+        if (options.isPassEnabled("dce") && (inliner != null || options.isPassEnabled("licm")))
+            passManager.add(new DeadCodeEliminationPass());
+        functions = new HashMap<>();
+        functionIndex = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Loads the templates from the classpath, i.e. from target/classes
+     * or from the jar. The returned group can be used by several threads.
+     */
+    public static STGroup loadTemplates() {
+        STGroup templateGroup = new STGroupFile(GlobalContext.class.getResource("/templates.stg"),
+                "UTF-8", '<', '>');
+        templateGroup.load();
+        return templateGroup;
+    }
+
+    private GlobalContext(GlobalContext program, int functionIndex) {
+        templateGroup = program.templateGroup;
+        options = program.options;
+        timeReport = program.timeReport;
+        passManager = program.passManager;
+        inliner = program.inliner;
+        functions = program.functions;
+        this.functionIndex = functionIndex;
+    }
+
+    /**
+     * Returns a new context for generating the function
+     * at the given position in the program.
+     */
+    public GlobalContext forFunction(int functionIndex) {
+        return new GlobalContext(this, functionIndex);
+    }
+
+    public int getFunctionIndex() {
+        return functionIndex;
+    }
+
+    /**
+     * Returns the visitor of the given class bound to this context.
+     * The visitor is created on the first request.
+     */
+    public <T> T getVisitor(Class<T> visitorClass, java.util.function.Function<GlobalContext, T> factory) {
+        Object visitor = visitors.get(visitorClass);
+        if (visitor == null) {
+            /* computeIfAbsent cannot be used, factories request other visitors */
+            visitor = factory.apply(this);
+            visitors.put(visitorClass, visitor);
+        }
+        return visitorClass.cast(visitor);
+    }
 
     /* Inhterited attribute for declAssign non-terminal */
     private VarType currentDeclarationType;
@@ -77,8 +178,15 @@ public class GlobalContext {
         functions.put(functionName, function);
     }
 
+    /**
+     * Returns the function if it is declared before the function
+     * being generated in this context or null otherwise.
+     */
     public Function getFunction(String id) {
-        return functions.get(id);
+        Function function = functions.get(id);
+        if (function == null || function.getDeclarationIndex() > functionIndex)
+            return null;
+        return function;
     }
 
     /**
@@ -118,6 +226,8 @@ public class GlobalContext {
         if (oldScopeInfo != null) {
             newScopeInfo.currentLoopBegLabel = oldScopeInfo.currentLoopBegLabel;
             newScopeInfo.currentLoopEndLabel = oldScopeInfo.currentLoopEndLabel;
+            newScopeInfo.currentLoopArenaMark = oldScopeInfo.currentLoopArenaMark;
+            newScopeInfo.currentLoopArenaAllocations = oldScopeInfo.currentLoopArenaAllocations;
         }
         scopeStack.push(newScopeInfo);
     }
@@ -153,12 +263,12 @@ public class GlobalContext {
      * Assigns a source program variables to a new
      * LLVM register.
      */
-    public void assignNewRegister(String id, String newRegister) {
+    public void assignNewRegister(String id, Value newRegister) {
         Variable var = getVariable(id);
         if (var == null)
             throw new RuntimeException("this shouldn't happen");
 
-        var.setLlName(newRegister);
+        var.setLlValue(newRegister);
     }
 
     /* counter used to generate unique LLVM registers */
@@ -181,14 +291,13 @@ public class GlobalContext {
 
     /**
      * This function handles fatal errors.
-     * Prints an error message and exits.
+     * Throws an exception carrying the error message,
+     * the message is printed by Main.
      */
     public void handleFatalError(String message) {
         if (currentFunctionName != null)
-            System.err.println("fatal error: in function " + currentFunctionName + ": " + message);
-        else
-            System.err.println("fatal error: " + message);
-        System.exit(2);
+            throw new CompilationException("fatal error: in function " + currentFunctionName + ": " + message);
+        throw new CompilationException("fatal error: " + message);
     }
 
     /**
@@ -199,11 +308,66 @@ public class GlobalContext {
     }
 
     /**
-     * Generate a unique new global string name.
+     * Returns a new IR builder whose registers are named by getNewReg().
+     */
+    public IrBuilder newBuilder() {
+        return new IrBuilder(this::getNewReg);
+    }
+
+    /**
+     * Text of a string literal defined as a global array.
+     * @param writable the program may write to the array, e.g. the literal
+     *                 initializes an array variable, so the array is neither
+     *                 constant nor shared by other literals
+     */
+    public record GlobalString(String text, boolean writable) {
+
+    }
+
+    /**
+     * Returns the name of the constant holding a string. The name is derived
+     * from the text, so every function refers to the same constant
+     * for equal strings regardless of the order functions are generated in.
      * Warning: '@' included.
      */
-    public String getNewGlobalStringName() {
-        return String.format("@str%d", globalStringCounter++);
+    public static String globalStringName(String text) {
+        return "@.str." + MainVisitor.sha256(text).substring(0, 16);
+    }
+
+    /**
+     * Returns the register holding the address of a constant string, which
+     * must never be written to. Every string is added to the global strings
+     * once and its address is computed once per function. The address is
+     * defined by MainVisitor at the beginning of the function once the whole
+     * function is visited.
+     */
+    public Register stringAddress(String text) {
+        return stringAddresses.computeIfAbsent(globalStringName(text), name -> {
+            globalStrings.put(name, new GlobalString(text, false));
+            return new Register(getNewReg(), "i8*");
+        });
+    }
+
+    /**
+     * Returns the register holding the address of a new array initialized
+     * by a string. Every call defines a distinct array, so writing to it
+     * affects neither other literals nor the constant strings.
+     * The address is defined like that of stringAddress().
+     */
+    public Register writableStringAddress(String text) {
+        String name = String.format("@str.%s.%d", currentFunctionName, writableStringCounter++);
+        globalStrings.put(name, new GlobalString(text, true));
+        Register address = new Register(getNewReg(), "i8*");
+        stringAddresses.put(name, address);
+        return address;
+    }
+
+    /**
+     * Returns the registers created by stringAddress() and writableStringAddress()
+     * by the names of the strings.
+     */
+    public Map<String, Register> getStringAddresses() {
+        return stringAddresses;
     }
 
     /**
@@ -214,6 +378,26 @@ public class GlobalContext {
         return String.format("label%d", idCounter++);
     }
 
+    /**
+     * Returns the register holding the position of the arena at the beginning
+     * of the current function. A return releases the arena to this position,
+     * since it leaves the code blocks without releasing their arrays.
+     * The register is defined by MainVisitor once the whole function is visited.
+     */
+    public Register functionArenaMark() {
+        if (functionArenaMark == null)
+            functionArenaMark = new Register(getNewReg(), "i8*");
+        return functionArenaMark;
+    }
+
+    /**
+     * Returns the register created by functionArenaMark(),
+     * null if no array of the function is allocated in the arena.
+     */
+    public Register getFunctionArenaMark() {
+        return functionArenaMark;
+    }
+
     /**
      * Maps source program type to LLVM type.
      * In addition, this function can work with pointers.
@@ -228,4 +412,22 @@ public class GlobalContext {
         }
         return sb.toString();
     }
+
+    /**
+     * Maps an array of the source program to LLVM type. A one-dimensional
+     * array is a pointer to its elements. A multi-dimensional array is stored
+     * contiguously in row-major order and represented by a structure holding
+     * the pointer to the elements and the strides of all but the last dimension,
+     * e.g. { i32*, i32, i32 } for three dimensions.
+     * @param sourceType source program type of the elements
+     * @param dimensionCount number of dimensions, 0 maps to the element type
+     */
+    public String llArrayType(VarType sourceType, int dimensionCount) {
+        if (dimensionCount < 2)
+            return llPointer(sourceType, dimensionCount);
+        StringBuilder sb = new StringBuilder("{ ").append(llPointer(sourceType, 1));
+        for (int i = 1; i < dimensionCount; ++i)
+            sb.append(", i32");
+        return sb.append(" }").toString();
+    }
 }
@@ -1,58 +1,83 @@
 package org.compiler;
 import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.tree.*;
-import org.gen.cssLexer;
-import org.gen.cssParser;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 
 public class Main {
 	public static void main(String[] args) {
-		/* parse arguments */
-		String inputFile = null;
-		String outputFile = "a.ll";
-		int i = 0;
-		while (i < args.length) {
-			if (args[i].equals("-o")) {
-				if (i >= args.length - 1) {
-					System.err.println("Missing input file name.");
-					System.exit(4);
-				}
-				outputFile = args[i + 1];
-				i += 2;
-				continue;
+		/* serve compile requests from stdin or a Unix socket */
+		if (args.length == 1 && args[0].equals("--server")) {
+			try {
+				new CompileServer().serve(System.in, System.out);
+			} catch (IOException | InterruptedException e) {
+				System.err.println("Compile server failed: " + e.getMessage());
+				System.exit(7);
+			}
+			return;
+		}
+		if (args.length == 1 && args[0].startsWith("--server=")) {
+			try {
+				new CompileServer().listen(Path.of(args[0].substring("--server=".length())));
+			} catch (IOException e) {
+				System.err.println("Compile server failed: " + e.getMessage());
+				System.exit(7);
 			}
-			inputFile = args[i++];
+			return;
+		}
+
+		/* parse arguments */
+		CompilerOptions options = null;
+		try {
+			options = CompilerOptions.parse(args);
+		} catch (CompilerOptions.UsageException e) {
+			System.err.println(e.getMessage());
+			System.exit(e.getExitStatus());
 		}
-		if (inputFile == null) {
-			System.err.println("No input file specified.");
-			System.exit(6);
+		/* compile each input to its own output file */
+		if (options.batch) {
+			int failed = new BatchCompiler().compile(options, System.out, System.err);
+			System.exit(failed == 0 ? 0 : 2);
+		}
+		String outputFile = options.outputFile != null ? options.outputFile : "a.ll";
+		/* recompile whenever the input changes */
+		if (options.watch) {
+			try {
+				new WatchCompiler().watch(options, outputFile, System.out, System.err);
+			} catch (IOException | InterruptedException e) {
+				System.err.println("Couldn't watch the input file.");
+				System.exit(5);
+			}
+			return;
 		}
 
-		GlobalContext globalVars = new GlobalContext();
 		CharStream in = null;
 		/* try to open the input file */
 		try {
-			in = CharStreams.fromFileName(inputFile);
+			in = CharStreams.fromFileName(options.inputFile());
 		} catch (IOException e) {
 			System.err.println("Couldn't open the input file.");
 			System.exit(5);
 		}
 
-		cssLexer lexer = new cssLexer(in);
-		CommonTokenStream tokens = new CommonTokenStream(lexer);
-		cssParser parser = new cssParser(tokens);
-		ParseTree tree = parser.program();
 		try (
-				FileWriter out = new FileWriter(outputFile)
+				BufferedWriter out = new BufferedWriter(new FileWriter(outputFile), 1 << 16)
 				)
 		{
 			System.out.println(outputFile);
-			out.write(MainVisitor.getInstance(globalVars).visit(tree));
+			new Compiler().compile(in, out, options);
 		} catch (IOException e) {
 			System.err.println("Couldn't open the output file.");
 			System.exit(3);
+		} catch (UncheckedIOException e) {
+			System.err.println("Couldn't write the output file.");
+			System.exit(3);
+		} catch (CompilationException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
 		} catch (Exception e) {
 			System.err.println("Fatal compilation error.");
 		}
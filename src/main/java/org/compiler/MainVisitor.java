@@ -1,31 +1,59 @@
 package org.compiler;
 
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.compiler.ir.*;
 import org.gen.cssParser;
 import org.stringtemplate.v4.*;
 import org.gen.*;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Visits various constructs. Returns LLVM code.
+ * The visitor bound to the program context visits the program,
+ * every function is generated by a visitor bound to the function context.
  */
 public class MainVisitor extends cssBaseVisitor<String> {
-	/* this integer value are used in allocateArrayLevels
-	 * to generate unique LLVM registers for loops
-	 * which are generated when allocating memory for arrays
-	 */
-	private int iRegisterCounter = 1;
-
-	private static MainVisitor instance = null;
 	public static MainVisitor getInstance(GlobalContext globalContext) {
-		if (instance == null)
-			instance = new MainVisitor(globalContext);
-		return instance;
+		return globalContext.getVisitor(MainVisitor.class, MainVisitor::new);
 	}
 
 	private final GlobalContext globalContext;
 	private final FunctionArgumentListVisitor functionArgumentListVisitor;
+	/* if set, the program is streamed to this writer function by function */
+	private Writer output = null;
+	/* number of threads generating functions */
+	private int parallelism = 1;
+	/* code of functions generated by previous compilations, might be null */
+	private FunctionCache functionCache = null;
+	private final IrPrinter irPrinter = new IrPrinter();
+	/* prefix of the string functions of the runtime library */
+	private static final String BUILTIN_STRING_PREFIX = "__css_";
+
+	/* signature of the function generated by this visitor, see declareFunction() */
+	private Function function = null;
+	private List<Variable> argList = null;
+	private CompilationException declarationError = null;
 
 	private MainVisitor(GlobalContext globalContext) {
 		this.globalContext = globalContext;
@@ -33,365 +61,497 @@ public class MainVisitor extends cssBaseVisitor<String> {
 	}
 
 	/**
-	 * Adds string library functions to global context.
-	 * Warning: if changing the format string sizes, don't
-	 * forget to change them in templates.stg.
-	 * Warning: if changing the names of format strings,
-	 * don't forget to change them in StatementVisitor.java
-	 * in input and output handler function as well.
+	 * Adds string library functions to global context. Unless disabled
+	 * by -fno-builtin-strings, the calls go to the functions
+	 * of the runtime library, otherwise to those of libstring.css.
 	 */
 	private void addStringLibFunctions() {
-		globalContext.addFunctionToGlobalContext("strlen", new Function(
-				VarType.INT, List.of(new Variable("", VarType.BYTE, 1))
-		));
-		globalContext.addFunctionToGlobalContext("strcmp", new Function(
-				VarType.INT, List.of(
-						new Variable("", VarType.BYTE, 1),
-						new Variable("", VarType.BYTE, 1)
-		)
-		));
-		globalContext.addFunctionToGlobalContext("strcpy", new Function(
-				VarType.VOID, List.of(
-				new Variable("", VarType.BYTE, 1),
-				new Variable("", VarType.BYTE, 1)
-		)
-		));
-		globalContext.addFunctionToGlobalContext("strcat", new Function(
-				VarType.VOID, List.of(
-				new Variable("", VarType.BYTE, 1),
-				new Variable("", VarType.BYTE, 1)
-		)
-		));
+		addStringLibFunction("strlen", VarType.INT, 1, 0);
+		addStringLibFunction("strcmp", VarType.INT, 2, 0);
+		addStringLibFunction("strcpy", VarType.VOID, 2, 1);
+		addStringLibFunction("strcat", VarType.VOID, 2, 1);
 	}
 
 	/**
-	 * Visit initial non-terminal.
+	 * @param argc number of string arguments
+	 * @param firstReadOnly position of the first argument the function only reads
 	 */
-	@Override
-	public String visitProgram(cssParser.ProgramContext ctx) {
-		ST programBodyTemplate = globalContext.templateGroup.getInstanceOf("program");
-		/* declare string library functions if import was specified */
-		if (ctx.IMPORT_STRING_LIB() != null) {
-			addStringLibFunctions();
-			programBodyTemplate.add("importStringFunctions", true);
+	private void addStringLibFunction(String name, VarType returnType, int argc, int firstReadOnly) {
+		ArrayList<Variable> arguments = new ArrayList<>(argc);
+		for (int i = 0; i < argc; ++i)
+			arguments.add(new Variable(null, VarType.BYTE, 1));
+		String symbol = globalContext.options.builtinStrings ? BUILTIN_STRING_PREFIX + name : null;
+		globalContext.addFunctionToGlobalContext(name, new Function(returnType, arguments, symbol, firstReadOnly));
+	}
+
+	/**
+	 * Enables streaming emission. Every function is written to the writer
+	 * as soon as its code is generated instead of being kept in memory
+	 * until the whole program is visited. Global strings are written
+	 * in a separate section after the last function.
+	 */
+	public void setOutput(Writer output) {
+		this.output = output;
+	}
+
+	/**
+	 * Sets the number of threads generating function bodies concurrently.
+	 * The output does not depend on the number of threads.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Reuses code of functions which have not changed since
+	 * a previous compilation using the same cache.
+	 */
+	public void setFunctionCache(FunctionCache functionCache) {
+		this.functionCache = functionCache;
+	}
+
+	/**
+	 * Renders definitions of global strings of the functions in program order.
+	 */
+	private List<String> renderGlobalStrings(List<MainVisitor> functions) {
+		/* equal strings of different functions share the constant */
+		LinkedHashMap<String, GlobalContext.GlobalString> globalStrings = new LinkedHashMap<>();
+		for (MainVisitor function : functions) {
+			for (Map.Entry<String, GlobalContext.GlobalString> string
+					: function.globalContext.globalStrings.entrySet()) {
+				GlobalContext.GlobalString defined = globalStrings.putIfAbsent(string.getKey(), string.getValue());
+				if (defined != null && !defined.equals(string.getValue()))
+					globalContext.handleFatalError("different strings have the same name " + string.getKey());
+			}
 		}
-		/* visit functions (at least one function must be defined) */
-		for (int i = 0; i < ctx.function().size(); ++i)
-			programBodyTemplate.add("programBody", visit(ctx.function(i)));
-		/* fill in the template */
-		for (String s : globalContext.globalStrings.keySet()) {
+		ArrayList<String> globalVariables = new ArrayList<>(globalStrings.size());
+		for (Map.Entry<String, GlobalContext.GlobalString> string : globalStrings.entrySet()) {
 			ST globString = globalContext.templateGroup.getInstanceOf("globalString");
-			globString.add("name", s);
-			String body = globalContext.globalStrings.get(s);
-			globString.add("size", String.valueOf(body.length() + 1));
-			globString.add("body", body);
-			programBodyTemplate.add("globalVariables", globString.render());
+			String text = string.getValue().text();
+			globString.add("name", string.getKey());
+			globString.add("size", String.valueOf(text.length() + 1));
+			globString.add("body", escapeString(text));
+			if (string.getValue().writable())
+				globString.add("writable", true);
+			globalVariables.add(globString.render());
 		}
-		return programBodyTemplate.render();
+		return globalVariables;
 	}
 
 	/**
-	 * Generates function code and adds function to the map of declared functions.
+	 * Escapes characters which cannot appear in an LLVM string constant
+	 * as is, i.e. quotation marks, backslashes and non-printable characters.
 	 */
-	@Override
-	public String visitFunction(cssParser.FunctionContext ctx) {
-		globalContext.currentFunctionName = ctx.ID().getText();
-		if (globalContext.containsFunction(ctx.ID().getText()))
-			globalContext.handleFatalError("function already declared");
-
-		globalContext.addNewScope();
-		VarType returnType = TypeVisitor.getInstance().visit(ctx.type());
-
-		/* visit function argument list */
-		List<Variable> argList;
-		String argListCode;
-		if (ctx.argList() != null) {
-			Pair<List<Variable>, String> pair = functionArgumentListVisitor.visit(ctx.argList());
-			argList = pair.p1;
-			argListCode = pair.p2;
-		} else {
-			argList = List.of();
-			argListCode = "";
+	private static String escapeString(String text) {
+		StringBuilder escaped = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			if (c < 0x20 || c == '"' || c == '\\' || (c >= 0x7f && c <= 0xff))
+				escaped.append(String.format("\\%02X", (int) c));
+			else
+				escaped.append(c);
 		}
+		return escaped.toString();
+	}
 
-		Function function = new Function(returnType, argList);
-		globalContext.addFunctionToGlobalContext(ctx.ID().getText(), function);
-		/* set current function */
-		globalContext.currentFunction = function;
-		ST functionDef = globalContext.templateGroup.getInstanceOf("functionDef");
+	/**
+	 * Returns true if the arena functions of the runtime library
+	 * are to be declared, i.e. if arrays may be allocated in the arena.
+	 */
+	private boolean usesArena() {
+		return globalContext.options.arrayAllocation != CompilerOptions.ArrayAllocation.STACK;
+	}
 
-		/*
-		 * This section allocates memory on stack for local variables which
-		 * are arguments for the function and copies the value passed as argument
-		 * to the memory address. This enables users to assign to variables that
-		 * were passed as arguments.
-		 */
-		for (Variable arg : argList) {
-			if (arg.getDimensionCount() > 0)
-				continue;
-			ST paramInit = globalContext.templateGroup.getInstanceOf("paramInit");
-			String destReg = globalContext.getNewReg();
-			paramInit.add("destReg", destReg);
-			paramInit.add("type", globalContext.variableTypeToLLType(arg.getType()));
-			paramInit.add("ptrType",
-					globalContext.llPointer(arg.getType(), 1));
-			paramInit.add("initValue", arg.getLlName());
-			arg.setLlName(destReg);
-			functionDef.add("paramInit", paramInit.render());
+	/**
+	 * Returns true if the stack intrinsics of LLVM are to be declared, i.e. if
+	 * TailCallPass may turn a function allocating arrays on the stack into a loop.
+	 */
+	private boolean savesStack() {
+		return globalContext.options.isPassEnabled("tailcall")
+				&& globalContext.options.arrayAllocation != CompilerOptions.ArrayAllocation.ARENA;
+	}
+
+	/**
+	 * Visit initial non-terminal.
+	 */
+	@Override
+	public String visitProgram(cssParser.ProgramContext ctx) {
+		/* declare string library functions if import was specified */
+		boolean importStringFunctions = ctx.IMPORT_STRING_LIB() != null;
+		List<cssParser.FunctionContext> functionContexts = ctx.function();
+		List<MainVisitor> functions = globalContext.timeReport.time(TimeReport.Phase.DECLARATIONS, () -> {
+			if (importStringFunctions)
+				addStringLibFunctions();
+			return declareFunctions(functionContexts);
+		});
+		if (output != null) {
+			streamProgram(functionContexts, functions, importStringFunctions);
+			return "";
 		}
 
+		ST programBodyTemplate = globalContext.templateGroup.getInstanceOf("program");
+		if (importStringFunctions)
+			programBodyTemplate.add("importStringFunctions", true);
+		if (importStringFunctions && globalContext.options.builtinStrings)
+			programBodyTemplate.add("stringFunctionPrefix", BUILTIN_STRING_PREFIX);
+		if (usesArena())
+			programBodyTemplate.add("useArena", true);
+		if (savesStack())
+			programBodyTemplate.add("saveStack", true);
+		/* visit functions (at least one function must be defined) */
+		generateFunctions(functionContexts, functions,
+				code -> programBodyTemplate.add("programBody", code));
 		/* fill in the template */
-		Statement statement = StatementVisitor.getInstance(globalContext).visit(ctx.codeBlock());
-		functionDef.add("returnType", globalContext.variableTypeToLLType(returnType));
-		functionDef.add("name", ctx.ID().getText());
-		functionDef.add("argumentList", argListCode);
-		functionDef.add("code", statement.code());
-		functionDef.add("firstLabel", statement.firstLabel());
-		if(returnType == VarType.VOID)
-			functionDef.add("voidFunction", true);
-
-		globalContext.popScope();
+		return globalContext.timeReport.time(TimeReport.Phase.TEMPLATES, () -> {
+			for (String globalVariable : renderGlobalStrings(functions))
+				programBodyTemplate.add("globalVariables", globalVariable);
+			return renderUnindented(programBodyTemplate);
+		});
+	}
 
-		return functionDef.render();
+	/**
+	 * Renders a template without the auto-indenting writer. Generated
+	 * code is already laid out by IrPrinter, so scanning every rendered
+	 * line for indentation only costs time on large programs.
+	 */
+	private static String renderUnindented(ST template) {
+		StringWriter rendered = new StringWriter();
+		try {
+			template.write(new NoIndentWriter(rendered));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return rendered.toString();
 	}
 
 	/**
-	 * Sets inherited attribute currentDeclarationType and visits
-	 * children (declAssign) which perform the allocation itself.
-	 * @param ctx the parse tree
+	 * Writes the program header, then every function right after
+	 * it has been visited and finally the global strings section.
+	 * Only the code of a few functions is held in memory at a time.
 	 */
-	@Override
-	public String visitVarDeclBlock(cssParser.VarDeclBlockContext ctx) {
-		VarType type = TypeVisitor.getInstance().visit(ctx.type());
-		/* set the inherited attribute */
-		globalContext.setCurrentDeclarationType(type);
-		ST template = globalContext.templateGroup.getInstanceOf("declarationBlock");
-		for (int i = 0; i < ctx.declAssign().size(); ++i) {
-			template.add("code", visit(ctx.declAssign(i)));
+	private void streamProgram(List<cssParser.FunctionContext> functionContexts,
+							   List<MainVisitor> functions, boolean importStringFunctions) {
+		try {
+			ST header = globalContext.templateGroup.getInstanceOf("programHeader");
+			if (importStringFunctions)
+				header.add("importStringFunctions", true);
+			if (importStringFunctions && globalContext.options.builtinStrings)
+				header.add("stringFunctionPrefix", BUILTIN_STRING_PREFIX);
+			if (usesArena())
+				header.add("useArena", true);
+			if (savesStack())
+				header.add("saveStack", true);
+			TimeReport timeReport = globalContext.timeReport;
+			timeReport.time(TimeReport.Phase.OUTPUT, () -> {
+				output.write(header.render());
+				output.write("\n\n");
+			});
+			generateFunctions(functionContexts, functions, code -> {
+				try {
+					timeReport.time(TimeReport.Phase.OUTPUT, () -> {
+						output.write(code);
+						output.write("\n\n");
+					});
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			List<String> globalVariables = timeReport.time(TimeReport.Phase.TEMPLATES,
+					() -> renderGlobalStrings(functions));
+			timeReport.time(TimeReport.Phase.OUTPUT, () -> {
+				for (String globalVariable : globalVariables) {
+					output.write(globalVariable);
+					output.write("\n");
+				}
+				output.flush();
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		return template.render();
 	}
 
 	/**
-	 * This recursive function generates loops which allocate memory
-	 * for arrays. Memory is allocated in a C-like way. Each level contains
-	 * pointers which point to a memory address base, where lower level
-	 * pointers are allocated, these point to the next level and so on.
-	 * Every memory is allocated on stack and the pointers are assigned properly.
-	 * The loops are then 'concatenated' so that parent loop body contains
-	 * child loop. The function is pretty ugly, but I am afraid there
-	 * was no other option.
-	 * @param sizes list of expressions representing dimension level size
-	 * @param iterationVars list of loop iteration variables generated beforehand
-	 * @param previousIncLabel label of the parent level loop
-	 * @param previousAllocReg parent pointer which points to the current memory base
-	 *                         which contains pointers of the current dimension level
-	 * @param index current index in sizes list
-	 * @param type actual type of the elements of the array being allocated
-	 * @return code of the current loop and return its beginning label
-	 * to the parent loop
+	 * Collects signatures of all functions before any function body
+	 * is generated. Every function gets its own context and visitor.
+	 * @return visitors which generate the functions, in program order
 	 */
-	private Pair<String, String> generateAllocLoops(ArrayList<Expression> sizes,
-													  ArrayList<String> iterationVars,
-									  				String previousIncLabel,
-													String previousAllocReg,
-													int index,
-													VarType type) {
-		int level = sizes.size() - index;
-		String incLabel = globalContext.genNewLabel();
-		String begLoopLabel = globalContext.genNewLabel();
-		String loopHeaderLabel = globalContext.genNewLabel();
-		String reg4 = globalContext.getNewReg();
-		ST template = globalContext.templateGroup.getInstanceOf("allocLoop");
-		/* type of value representing amount of pointers in the current level allocated by parent */
-		template.add("allocAmountParentType", globalContext.variableTypeToLLType(sizes.get(index - 1).type()));
-		/* type of iteration variable */
-		template.add("iType", globalContext.llPointer(sizes.get(index - 1).type(), 1));
-		/* loop iteration variable */
-		template.add("i", iterationVars.get(index));
-		/* header label of current loop */
-		template.add("loopHeaderLabel", loopHeaderLabel);
-		/* compare for the loop header expression */
-		template.add("cmp", globalContext.getNewReg());
-		/* how many pointers are in current level */
-		template.add("allocAmountParentReg", sizes.get(index - 1).returnRegister());
-		/* temporary registers for template */
-		template.add("reg1", globalContext.getNewReg());
-		template.add("reg2", globalContext.getNewReg());
-		/* label of current loop body */
-		template.add("bodyLabel", globalContext.genNewLabel());
-		/* end label of current loop */
-		template.add("endLabel", previousIncLabel);
-		template.add("reg4", reg4);
-		/* type of lower level pointers, i.e. one star less */
-		template.add("allocPtrType", globalContext.llPointer(type, level - 1));
-		/* how many items to allocate - type */
-		template.add("allocAmountCurrentType", globalContext.variableTypeToLLType(sizes.get(index).type()));
-		/* how many items to allocate */
-		template.add("allocAmountCurrentReg", sizes.get(index).returnRegister());
-		/* type of parent pointer */
-		template.add("parentPtrType", globalContext.llPointer(type, level + 1));
-		/* parent pointer value */
-		template.add("parentPtr", previousAllocReg);
-		/* label of the loop beginning */
-		template.add("begLoopLabel", begLoopLabel);
-		template.add("reg5", globalContext.getNewReg());
-		/* type of current pointer level */
-		template.add("currentPtrType", globalContext.llPointer(type, level));
-		/* label where iteration variable is incremented */
-		template.add("incLabel", incLabel);
-
-		/* base case for the lowest level pointer */
-		if (level > 1) {
-			template.add("addSubLoop", true);
-			Pair<String, String> p = generateAllocLoops(sizes, iterationVars,
-					incLabel, reg4, index + 1, type);
-			template.add("subLoop", p.p1);
-			template.add("subLoopLabel", p.p2);
+	private List<MainVisitor> declareFunctions(List<cssParser.FunctionContext> functionContexts) {
+		ArrayList<MainVisitor> functions = new ArrayList<>(functionContexts.size());
+		for (int i = 0; i < functionContexts.size(); ++i) {
+			MainVisitor function = getInstance(globalContext.forFunction(i));
+			function.declareFunction(functionContexts.get(i));
+			functions.add(function);
+		}
+		/* keys cover the keys of the callees, which precede their callers */
+		for (int i = 0; i < functions.size(); ++i) {
+			MainVisitor function = functions.get(i);
+			if (function.declarationError != null)
+				continue;
+			if (functionCache != null)
+				function.function.setCacheKey(function.cacheKey(functionContexts.get(i)));
+			if (globalContext.inliner != null)
+				globalContext.inliner.declare(functionContexts.get(i).ID().getText());
 		}
-		return new Pair<>(template.render(), begLoopLabel);
+		return functions;
 	}
 
 	/**
-	 * Allocate the highest level array of pointers and save pointer to them.
-	 * As opposed to lower levels, the top level allocation
-	 * is not be translated to a loop.
-	 * @param var variable to allocate
-	 * @param sizes sizes which are passed to generateAllocLoops
-	 * @return code
+	 * Generates the functions and passes their code to the consumer
+	 * in program order. If parallelism is greater than one, functions
+	 * are generated concurrently on a fork/join pool.
 	 */
-	private String allocateArrayLevels(Variable var, ArrayList<Expression> sizes) {
-		ArrayList<String> iRegisters = new ArrayList<>(var.getDimensionCount());
-		for (int i = 0; i < var.getDimensionCount(); ++i) {
-			iRegisters.add(String.format("%%i%d_%d", i, iRegisterCounter++));
+	private void generateFunctions(List<cssParser.FunctionContext> functionContexts,
+								   List<MainVisitor> functions, Consumer<String> consumer) {
+		if (parallelism <= 1) {
+			for (int i = 0; i < functions.size(); ++i)
+				consumer.accept(functions.get(i).generateFunction(functionContexts.get(i), functionCache));
+			return;
 		}
-		ST allocInit = globalContext.templateGroup.getInstanceOf("allocInit");
-		/* generate code for iteration variables initialization (the highest does not need one) */
-		for (int i = 0; i < var.getDimensionCount(); ++i) {
-			if (i > 0) {
-				ST alloca = globalContext.templateGroup.getInstanceOf("alloca");
-				alloca.add("dest", iRegisters.get(i));
-				alloca.add("type", globalContext.variableTypeToLLType(sizes.get(i - 1).type()));
-				allocInit.add("indicesInitCode", alloca.render());
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+			int submitted = 0;
+			for (int i = 0; i < functions.size(); ++i) {
+				/*
+				 * limit the number of functions ahead of the one being written,
+				 * so that finished functions do not pile up in memory
+				 */
+				while (submitted < functions.size() && submitted < i + parallelism * 4) {
+					MainVisitor function = functions.get(submitted);
+					cssParser.FunctionContext functionContext = functionContexts.get(submitted);
+					pending.add(pool.submit(() -> function.generateFunction(functionContext, functionCache)));
+					++submitted;
+				}
+				consumer.accept(awaitFunction(pending.remove()));
 			}
-			allocInit.add("exprCode", sizes.get(i).code());
+		} finally {
+			pool.shutdownNow();
 		}
+	}
 
-		/* generate code for highest level allocation */
-		String endLabel = globalContext.genNewLabel();
-		ST firstLoop = globalContext.templateGroup.getInstanceOf("firstAllocLoop");
-		firstLoop.add("init", allocInit.render());
-		String resultReg = var.getLlName();
-		firstLoop.add("resultReg", resultReg);
-		firstLoop.add("allocPtrType", globalContext.llPointer(var.getType(), sizes.size() - 1));
-		firstLoop.add("allocAmountType", globalContext.variableTypeToLLType(sizes.get(0).type()));
-		firstLoop.add("allocAmountReg", sizes.get(0).returnRegister());
-		/* loops don't need to be generated if only one level is to be allocated */
-		if (sizes.size() > 1) {
-			firstLoop.add("addSubLoop", true);
-			firstLoop.add("endLabel", endLabel);
-			Pair<String, String> p = generateAllocLoops(sizes, iRegisters, endLabel, resultReg, 1, var.getType());
-			firstLoop.add("subLoop", p.p1);
-			firstLoop.add("subLoopLabel", p.p2);
+	/**
+	 * Waits for a function to be generated. Errors are rethrown
+	 * in the thread assembling the program, so the first error
+	 * in program order is the one reported.
+	 */
+	private static String awaitFunction(Future<String> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException cause)
+				throw cause;
+			if (e.getCause() instanceof Error cause)
+				throw cause;
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
 		}
-		return firstLoop.render();
 	}
 
 	/**
-	 * Visits children expression for array level/dimension
-	 * sizes and creates a list of them. It is then passed to above functions
-	 * to generate code for array allocation.
+	 * Visits the signature of a function and adds the function
+	 * to the map of declared functions. An error is not reported
+	 * right away, but once the function is generated, so that errors
+	 * are reported in the same order as if functions were visited one by one.
 	 */
-	private String visitDeclAssignArray(cssParser.DeclAssignContext ctx, VarType type) {
-		ArrayList<Expression> sizes = new ArrayList<>(ctx.declTypeArray().size());
-		boolean containsNull = false, containsSome = false;
-		for (int i = 0; i < ctx.declTypeArray().size(); ++i) {
-			Expression size = ExpressionVisitor.getInstance(globalContext).visit(ctx.declTypeArray(i));
-			if (size == null) {
-				containsNull = true;
-			} else {
-				containsSome = true;
-				sizes.add(size);
-			}
-		}
-		/* every array must either contain all sizes of dimensions or none */
-		if (containsNull && containsSome) {
-			globalContext.handleFatalError("when declaring an array, either" +
-					"every dimension must have a specified size or none");
+	private void declareFunction(cssParser.FunctionContext ctx) {
+		try {
+			globalContext.currentFunctionName = ctx.ID().getText();
+			if (globalContext.containsFunction(ctx.ID().getText()))
+				globalContext.handleFatalError("function already declared");
+
+			globalContext.addNewScope();
+			VarType returnType = TypeVisitor.getInstance().visit(ctx.type());
+
+			/* visit function argument list */
+			if (ctx.argList() != null)
+				argList = functionArgumentListVisitor.visit(ctx.argList());
+			else
+				argList = List.of();
+
+			function = new Function(returnType, argList, globalContext.getFunctionIndex());
+			globalContext.addFunctionToGlobalContext(ctx.ID().getText(), function);
+		} catch (CompilationException e) {
+			declarationError = e;
 		}
+	}
 
-		Variable var = new Variable(globalContext.getNewReg(), type, ctx.declTypeArray().size());
-		Expression assignValue = null;
-		if (ctx.expression() != null)
-			assignValue = ExpressionVisitor.getInstance(globalContext).visit(ctx.expression());
-
-		String code;
-		/* an array whose size is to be allocated cannot be assigned another array */
-		if (!containsSome) {
-			if (assignValue != null) {
-				code = assignValue.code();
-				var.setLlName(assignValue.returnRegister());
-				if (assignValue.type() != var.getType() || assignValue.dimensionCount() != var.getDimensionCount()) {
-					globalContext.handleFatalError("type mismatch at declaration of '" +
-							ctx.ID().getText() +
-							"'");
+	/**
+	 * Returns code of a function declared by declareFunction(),
+	 * the code is taken from the cache if possible.
+	 * @param cache might be null
+	 */
+	private String generateFunction(cssParser.FunctionContext ctx, FunctionCache cache) {
+		InlinePass inliner = globalContext.inliner;
+		String name = ctx.ID().getText();
+		String key = cache == null || declarationError != null ? null : function.getCacheKey();
+		FunctionCache.Entry entry = key == null ? null : cache.get(key);
+		try {
+			return globalContext.timeReport.timeFunction(globalContext.getFunctionIndex(), name, entry != null, () -> {
+				if (declarationError != null)
+					throw declarationError;
+				if (entry != null) {
+					globalContext.globalStrings.putAll(entry.globalStrings());
+					if (inliner != null) {
+						inliner.publish(name, entry.inlineBody());
+						inliner.setReport(name, entry.inlined());
+					}
+					return entry.code();
 				}
-			} else {
-				code = "";
-			}
-		} else {
-			code = allocateArrayLevels(var, sizes);
-			if (assignValue != null) {
-				globalContext.handleFatalError("cannot assign to an array with specified sizes at declaration");
-			}
+				String code = visit(ctx);
+				if (cache != null)
+					cache.put(key, new FunctionCache.Entry(code, new LinkedHashMap<>(globalContext.globalStrings),
+							inliner == null ? null : inliner.published(name),
+							inliner == null ? List.of() : inliner.report(name)));
+				return code;
+			});
+		} finally {
+			/* callers must not wait for a function which failed to compile */
+			if (inliner != null)
+				inliner.publish(name, null);
+		}
+	}
+
+	/**
+	 * Returns a key which identifies the generated code of a function.
+	 * Apart from the source text of the function, the code depends only on
+	 * the called functions, i.e. whether they are declared before the function
+	 * and their signatures, and the code of the functions inlined into it.
+	 * Registers, labels and strings are numbered per function, so the position
+	 * of the function does not matter.
+	 */
+	private String cacheKey(cssParser.FunctionContext ctx) {
+		String text = ctx.start.getInputStream().getText(
+				Interval.of(ctx.start.getStartIndex(), ctx.stop.getStopIndex()));
+		StringBuilder key = new StringBuilder(sha256(text));
+		TreeSet<String> callees = new TreeSet<>();
+		collectCallees(ctx, callees);
+		for (String callee : callees) {
+			Function function = globalContext.getFunction(callee);
+			key.append(' ').append(callee).append(':')
+					.append(function == null ? "undeclared" : function.signature());
+			if (globalContext.inliner != null && function != null && function.getCacheKey() != null)
+				key.append(" {").append(function.getCacheKey()).append('}');
+		}
+		/* keys of callers would grow with the keys of their callees */
+		return sha256(key.toString());
+	}
+
+	private static void collectCallees(ParseTree tree, Set<String> callees) {
+		if (tree instanceof cssParser.FuncCallExprContext call)
+			callees.add(call.ID().getText());
+		for (int i = 0; i < tree.getChildCount(); ++i)
+			collectCallees(tree.getChild(i), callees);
+	}
+
+	static String sha256(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
 		}
-		globalContext.addToLastScope(ctx.ID().getText(), var);
-		return code;
 	}
 
 	/**
-	 * Generate code for variable allocation.
-	 * @param ctx the parse tree
+	 * Generates code of a function declared by declareFunction().
 	 */
 	@Override
-	public String visitDeclAssign(cssParser.DeclAssignContext ctx) {
-		Variable var = globalContext.getVariable(ctx.ID().getText());
-		VarType type = globalContext.getCurrentDeclarationType();
-		if (type == VarType.VOID)
-			globalContext.handleFatalError("cannot declare a variable '" +
-					ctx.ID().getText() +
-					"' of type void");
-
-		if (var != null) {
-			globalContext.handleFatalError("variable '" +
-					ctx.ID().getText() +
-					"' declared more than once");
+	public String visitFunction(cssParser.FunctionContext ctx) {
+		String name = ctx.ID().getText();
+		TimeReport timeReport = globalContext.timeReport;
+		IrFunction irFunction = timeReport.time(TimeReport.Phase.VISITORS, name, () -> buildFunction(ctx));
+		timeReport.time(TimeReport.Phase.PASSES, name, () -> transformFunction(irFunction));
+		return timeReport.time(TimeReport.Phase.TEMPLATES, name, () -> printFunction(irFunction));
+	}
+
+	/**
+	 * Visits the body of a function and splits its code to basic blocks.
+	 */
+	private IrFunction buildFunction(cssParser.FunctionContext ctx) {
+		ArrayList<Register> argRegisters = new ArrayList<>(argList.size());
+		for (Variable arg : argList)
+			argRegisters.add((Register) arg.getLlValue());
+
+		/* set current function */
+		globalContext.currentFunction = function;
+		IrBuilder builder = globalContext.newBuilder();
+		builder.label("init");
+
+		/*
+		 * This section allocates memory on stack for local variables which
+		 * are arguments for the function and copies the value passed as argument
+		 * to the memory address. This enables users to assign to variables that
+		 * were passed as arguments.
+		 */
+		for (Variable arg : argList) {
+			if (arg.getDimensionCount() > 0)
+				continue;
+			Register destReg = builder.alloca(globalContext.variableTypeToLLType(arg.getType()), null);
+			builder.store(arg.getLlValue(), destReg);
+			arg.setLlValue(destReg);
+		}
+
+		AssignedVariablesVisitor.getInstance(globalContext).visit(ctx.codeBlock());
+		Statement statement = StatementVisitor.getInstance(globalContext).visit(ctx.codeBlock());
+		/* returns release the arena to its position at the beginning of the function */
+		Register arenaMark = globalContext.getFunctionArenaMark();
+		if (arenaMark != null)
+			builder.code().append(new CallInstruction(arenaMark, "i8*", null, "__css_arena_mark", List.of()));
+		for (Map.Entry<String, Register> string : globalContext.getStringAddresses().entrySet()) {
+			String text = globalContext.globalStrings.get(string.getKey()).text();
+			String arrayType = "[" + (text.length() + 1) + " x i8]";
+			Value global = new GlobalValue(string.getKey(), arrayType + "*");
+			Constant zero = new Constant("i32", 0);
+			builder.code().append(new GetElementPtrInstruction(string.getValue(), arrayType, global,
+					List.of(zero, zero)));
 		}
+		builder.branch(statement.firstLabel());
+		builder.append(statement.code());
+		/* return a default value if the end of the function is reached */
+		VarType returnType = function.getReturnType();
+		String llReturnType = globalContext.variableTypeToLLType(returnType);
+		if (returnType == VarType.VOID)
+			builder.ret(null);
+		else
+			builder.ret(new Constant(llReturnType, 0));
+
+		globalContext.popScope();
 
-		/* use above functions to handle arrays */
-		if (!ctx.declTypeArray().isEmpty())
-			return visitDeclAssignArray(ctx, type);
-
-		String register = globalContext.getNewReg();
-		ST template = globalContext.templateGroup.getInstanceOf("simpleVarDeclaration");
-		template.add("reg", register);
-		template.add("type", globalContext.variableTypeToLLType(type));
-
-		/* assign an expression to the newly allocated variable */
-		if (ctx.expression() != null) {
-			Expression assignValue = ExpressionVisitor.getInstance(globalContext).visit(ctx.expression());
-			if (assignValue.type() != type) {
-				globalContext.handleFatalError("type mismatch at declaration of '" +
-						ctx.ID().getText() +
-						"'");
+		/* split the code to basic blocks */
+		IrFunction irFunction = new IrFunction(llReturnType, ctx.ID().getText(), argRegisters,
+				globalContext::getNewReg, globalContext::genNewLabel);
+		irFunction.appendCode(builder.code());
+		irFunction.hoistAllocas();
+		return irFunction;
+	}
+
+	/**
+	 * Runs the passes on a function and forgets the strings it no longer uses.
+	 */
+	private void transformFunction(IrFunction irFunction) {
+		globalContext.passManager.run(irFunction);
+		/* strings used only by removed code are not defined */
+		HashSet<String> usedGlobals = new HashSet<>();
+		for (BasicBlock block : irFunction.blocks()) {
+			for (Instruction instruction : block.instructions()) {
+				for (Value operand : instruction.operands()) {
+					if (operand instanceof GlobalValue)
+						usedGlobals.add(operand.ref());
+				}
 			}
-			template.add("init", true);
-			template.add("expressionCode", assignValue.code());
-			template.add("value", assignValue.returnRegister());
-			template.add("ptrType", globalContext.llPointer(type, 1));
 		}
-		var = new Variable(register, type, 0);
-		globalContext.addToLastScope(ctx.ID().getText(), var);
-		return template.render();
+		globalContext.globalStrings.keySet().retainAll(usedGlobals);
+	}
+
+	private String printFunction(IrFunction irFunction) {
+		ST functionDef = globalContext.templateGroup.getInstanceOf("functionDef");
+		functionDef.add("returnType", irFunction.returnType());
+		functionDef.add("name", irFunction.name());
+		functionDef.add("argumentList", irPrinter.printArguments(irFunction));
+		functionDef.add("code", irPrinter.print(irFunction));
+		return renderUnindented(functionDef);
 	}
 }
@@ -1,10 +0,0 @@
-package org.compiler;
-
-public class Pair<T, P> {
-    public T p1;
-    public P p2;
-    public Pair(T p1, P p2) {
-        this.p1 = p1;
-        this.p2 = p2;
-    }
-}
@@ -0,0 +1,50 @@
+package org.compiler;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Formats parse time and statistics of the parser decisions
+ * collected by a parser with profiling enabled.
+ */
+public class ParseStatistics {
+    /* number of the most expensive decisions reported */
+    private static final int REPORTED_DECISIONS = 10;
+
+    private ParseStatistics() {
+
+    }
+
+    /**
+     * Returns the report as a string, so that reports of files
+     * compiled concurrently do not interleave.
+     * @param fallback true if the SLL prediction failed and the input was parsed again
+     */
+    public static String report(String sourceName, Parser parser, int tokens, boolean fallback, long nanos) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "parse statistics for %s: %d tokens in %.2f ms, %s%n",
+                sourceName, tokens, nanos / 1e6,
+                fallback ? "SLL prediction failed, parsed again with LL" : "SLL prediction"));
+
+        DecisionInfo[] decisions = parser.getParseInfo().getDecisionInfo();
+        DecisionInfo[] sorted = Arrays.stream(decisions)
+                .filter(decision -> decision.invocations > 0)
+                .sorted(Comparator.comparingLong((DecisionInfo decision) -> decision.timeInPrediction).reversed())
+                .limit(REPORTED_DECISIONS)
+                .toArray(DecisionInfo[]::new);
+        sb.append(String.format(Locale.ROOT, "  %-8s %-16s %11s %9s %10s %11s %10s%n", "decision", "rule",
+                "invocations", "time (ms)", "SLL look", "LL fallback", "LL look"));
+        for (DecisionInfo decision : sorted) {
+            int rule = parser.getATN().decisionToState.get(decision.decision).ruleIndex;
+            sb.append(String.format(Locale.ROOT, "  %-8d %-16s %11d %9.2f %10d %11d %10d%n",
+                    decision.decision, parser.getRuleNames()[rule], decision.invocations,
+                    decision.timeInPrediction / 1e6, decision.SLL_TotalLook,
+                    decision.LL_Fallback, decision.LL_TotalLook));
+        }
+        return sb.toString();
+    }
+}
@@ -1,5 +1,7 @@
 package org.compiler;
 
+import org.compiler.ir.Register;
+
 import java.util.HashMap;
 
 /**
@@ -18,6 +20,13 @@ public class ScopeInfo {
     /* Inherited attribute for BREAK */
     public String currentLoopEndLabel = null;
 
+    /*
+     * Inherited attributes for CONTINUE and BREAK, position of the arena
+     * before the loop and the number of arena allocations preceding the loop
+     */
+    public Register currentLoopArenaMark = null;
+    public int currentLoopArenaAllocations = 0;
+
     public ScopeInfo() {
         variables = new HashMap<>();
     }
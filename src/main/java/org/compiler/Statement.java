@@ -1,10 +1,19 @@
 package org.compiler;
 
+import org.compiler.ir.Code;
+
 /**
  * Represents a statement.
  * @param firstLabel label of the code block starting
  *                   with this statement (might be null)
  * @param code code of the statement
+ * @param outputText text printed by an output statement of a constant value,
+ *                   null for other statements. The code of such a statement
+ *                   is empty, the enclosing code block writes the text together
+ *                   with the texts of the adjacent statements.
  */
-public record Statement(String firstLabel, String code) {
+public record Statement(String firstLabel, Code code, String outputText) {
+    public Statement(String firstLabel, Code code) {
+        this(firstLabel, code, null);
+    }
 }
@@ -1,19 +1,17 @@
 package org.compiler;
 
+import org.compiler.ir.*;
 import org.gen.*;
-import org.stringtemplate.v4.ST;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Visits statements.
  */
 public class StatementVisitor extends cssBaseVisitor<Statement> {
-    private static StatementVisitor instance = null;
     public static StatementVisitor getInstance(GlobalContext globalContext) {
-        if (instance == null)
-            instance = new StatementVisitor(globalContext);
-        return instance;
+        return globalContext.getVisitor(StatementVisitor.class, StatementVisitor::new);
     }
 
     private final GlobalContext globalContext;
@@ -28,41 +26,83 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
      * fragment to point to the next one. If the label of the next
      * code fragment is null, the blocks are merged to avoid redundant
      * labels. Statement returned by this function always begins
-     * a label.
+     * a label. A block which allocates arrays in the arena saves
+     * the position of the arena first and releases it at its end.
      * @param ctx the parse tree
      */
     @Override
     public Statement visitCodeBlock(cssParser.CodeBlockContext ctx) {
         globalContext.addNewScope();
-        ST concat = globalContext.templateGroup.getInstanceOf("concatCodeBlock");
+        int arenaAllocations = globalContext.arenaAllocations;
         ArrayList<Statement> statements = new ArrayList<>(ctx.codeFragment().size());
         for (int i = 0; i < ctx.codeFragment().size(); ++i) {
             statements.add(visit(ctx.codeFragment(i)));
         }
-        /* concatenate blocks */
-        for (int i = 0; i < statements.size(); ++i) {
-            ST bind = globalContext.templateGroup.getInstanceOf("codeFragment");
-            bind.add("code", statements.get(i).code());
-            if (i == statements.size() - 1 || statements.get(i + 1).firstLabel() == null) {
-                concat.add("code", bind.render());
-                continue;
-            }
-            bind.add("label", statements.get(i + 1).firstLabel());
-            bind.add("jump", true);
-            concat.add("code", bind.render());
-        }
 
+        IrBuilder builder = globalContext.newBuilder();
         /* if the first does not have a label, generate one */
         String firstLabel;
         if (!statements.isEmpty() && statements.get(0).firstLabel() != null) {
             firstLabel = statements.get(0).firstLabel();
         } else {
             firstLabel = globalContext.genNewLabel();
-            concat.add("addFirstLabel", true);
-            concat.add("firstLabel", firstLabel);
+            builder.label(firstLabel);
+        }
+        /* concatenate blocks, constant output of adjacent statements is written at once */
+        StringBuilder outputText = new StringBuilder();
+        for (int i = 0; i < statements.size(); ++i) {
+            if (statements.get(i).outputText() != null) {
+                outputText.append(statements.get(i).outputText());
+            } else {
+                writeText(builder, outputText);
+                builder.append(statements.get(i).code());
+            }
+            if (i != statements.size() - 1 && statements.get(i + 1).firstLabel() != null) {
+                writeText(builder, outputText);
+                builder.branch(statements.get(i + 1).firstLabel());
+            }
         }
+        writeText(builder, outputText);
         globalContext.popScope();
-        return new Statement(firstLabel, concat.render());
+        if (globalContext.arenaAllocations == arenaAllocations)
+            return new Statement(firstLabel, builder.code());
+
+        /* arrays allocated in the arena by the block are freed when the block is left */
+        IrBuilder region = globalContext.newBuilder();
+        String regionLabel = globalContext.genNewLabel();
+        region.label(regionLabel);
+        Register mark = region.call("i8*", "__css_arena_mark", List.of());
+        region.branch(firstLabel);
+        region.append(builder.code());
+        region.call("void", "__css_arena_release", List.of(mark));
+        return new Statement(regionLabel, region.code());
+    }
+
+    /**
+     * Generates code writing the text collected from output statements
+     * and clears the text. A single character is written as a byte,
+     * a longer text is a constant string whose length is known.
+     */
+    private void writeText(IrBuilder builder, StringBuilder text) {
+        if (text.isEmpty())
+            return;
+        if (text.length() == 1) {
+            builder.call("void", "__css_write_byte", List.of(ConstantFolder.constant("i8", text.charAt(0))));
+        } else {
+            Register string = globalContext.stringAddress(text.toString());
+            builder.call("void", "__css_write_bytes", List.of(string, new Constant("i32", text.length())));
+        }
+        text.setLength(0);
+    }
+
+    /**
+     * Makes jumps of a condition to a placeholder label jump to the actual
+     * target. Conditions are visited before the blocks they jump to,
+     * so the labels of the blocks are not known yet.
+     */
+    private static void retarget(Condition condition, String placeholder, String target) {
+        for (Instruction instruction : condition.code())
+            instruction.replaceSuccessor(placeholder, target);
     }
 
     /**
@@ -80,7 +120,7 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
      */
     @Override
     public Statement visitCodeFragmentVarDecl(cssParser.CodeFragmentVarDeclContext ctx) {
-        String code = MainVisitor.getInstance(globalContext).visit(ctx.varDeclBlock());
+        Code code = DeclarationVisitor.getInstance(globalContext).visit(ctx.varDeclBlock());
         return new Statement(null, code);
     }
 
@@ -109,36 +149,46 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
         /* set inherited attributes for continue and break statements */
         globalContext.getLastScope().currentLoopBegLabel = firstLabel;
         globalContext.getLastScope().currentLoopEndLabel = endLabel;
-        Expression expression = ExpressionVisitor.getInstance(globalContext).visit(ctx.expression());
-        if (expression.type() == VarType.VOID) {
+        int arenaAllocations = globalContext.arenaAllocations;
+        Register arenaMark = null;
+        if (globalContext.options.arrayAllocation != CompilerOptions.ArrayAllocation.STACK)
+            arenaMark = new Register(globalContext.getNewReg(), "i8*");
+        globalContext.getLastScope().currentLoopArenaMark = arenaMark;
+        globalContext.getLastScope().currentLoopArenaAllocations = arenaAllocations;
+        String bodyLabel = globalContext.genNewLabel();
+        Condition condition = ConditionVisitor.getInstance(globalContext).generate(ctx.expression(),
+                bodyLabel, endLabel);
+        if (condition.type() == VarType.VOID) {
             globalContext.handleFatalError("while statement header cannot " +
                     "contain an expression of type 'void'");
         }
-        if (expression.dimensionCount() != 0) {
+        if (condition.dimensionCount() != 0) {
             globalContext.handleFatalError("only simple expression can go to while");
         }
         Statement codeBlock = visit(ctx.codeBlock());
-        ST whileTemplate = globalContext.templateGroup.getInstanceOf("while");
-        whileTemplate.add("tmpReg", globalContext.getNewReg());
-        whileTemplate.add("expressionCode", expression.code());
-        whileTemplate.add("labelBegin", firstLabel);
-        whileTemplate.add("labelEnd", endLabel);
-        whileTemplate.add("bodyCodeBlock", codeBlock.code());
-        whileTemplate.add("expressionType", globalContext.variableTypeToLLType(expression.type()));
-        whileTemplate.add("expressionReg", expression.returnRegister());
-        String labelBody;
         /* jump to the loop body, i.e. label of the body code block */
-        if (codeBlock.firstLabel() == null) {
-            labelBody = globalContext.genNewLabel();
-            whileTemplate.add("addBodyLabel", true);
-        } else {
-            labelBody = codeBlock.firstLabel();
-        }
-        whileTemplate.add("labelBody", labelBody);
+        retarget(condition, bodyLabel, codeBlock.firstLabel());
+        IrBuilder builder = globalContext.newBuilder();
+        builder.label(firstLabel);
+        builder.append(condition.code());
+        builder.append(codeBlock.code());
+        builder.branch(firstLabel);
+        builder.label(endLabel);
         /* unset inherited attributes for continue and break statements */
         globalContext.getLastScope().currentLoopBegLabel = null;
         globalContext.getLastScope().currentLoopEndLabel = null;
-        return new Statement(firstLabel, whileTemplate.render());
+        globalContext.getLastScope().currentLoopArenaMark = null;
+        if (arenaMark == null || globalContext.arenaAllocations == arenaAllocations)
+            return new Statement(firstLabel, builder.code());
+
+        /* continue and break release the arena to its position before the loop */
+        IrBuilder loop = globalContext.newBuilder();
+        String markLabel = globalContext.genNewLabel();
+        loop.label(markLabel);
+        loop.code().append(new CallInstruction(arenaMark, "i8*", null, "__css_arena_mark", List.of()));
+        loop.branch(firstLabel);
+        loop.append(builder.code());
+        return new Statement(markLabel, loop.code());
     }
 
     @Override
@@ -156,12 +206,12 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
             globalContext.handleFatalError("return value type does not match");
         }
 
-        ST returnTemplate = globalContext.templateGroup.getInstanceOf("return");
-        returnTemplate.add("type",
-                globalContext.variableTypeToLLType(currentFunction.getReturnType()));
-        returnTemplate.add("retReg", expression.returnRegister());
-        returnTemplate.add("expressionCode", expression.code());
-        return new Statement(null, returnTemplate.render());
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(expression.code());
+        if (globalContext.getFunctionArenaMark() != null)
+            builder.call("void", "__css_arena_release", List.of(globalContext.getFunctionArenaMark()));
+        builder.ret(expression.returnRegister());
+        return new Statement(null, builder.code());
     }
 
     /**
@@ -173,39 +223,27 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
      */
     @Override
     public Statement visitIf(cssParser.IfContext ctx) {
-        ST ifTemplate = globalContext.templateGroup.getInstanceOf("if");
-        Expression expression = ExpressionVisitor.getInstance(globalContext).visit(ctx.expression());
-        if (expression.type() == VarType.VOID) {
+        String bodyLabel = globalContext.genNewLabel();
+        String nextLabel = globalContext.genNewLabel();
+        Condition condition = ConditionVisitor.getInstance(globalContext).generate(ctx.expression(),
+                bodyLabel, nextLabel);
+        if (condition.type() == VarType.VOID) {
             globalContext.handleFatalError("if header cannot contain an " +
                     "expression of type 'void'");
         }
-        if (expression.dimensionCount() != 0) {
+        if (condition.dimensionCount() != 0) {
             globalContext.handleFatalError("if header can only contain a primitive non-array expression");
         }
         Statement codeBlock = visit(ctx.codeBlock());
-        ifTemplate.add("exprCode", expression.code());
-        ifTemplate.add("exprType", globalContext.variableTypeToLLType(expression.type()));
-        ifTemplate.add("exprReg", expression.returnRegister());
-        ifTemplate.add("tmpReg", globalContext.getNewReg());
-        String bodyLabel;
-        if (codeBlock.firstLabel() == null) {
-            ifTemplate.add("addBodyLabel", true);
-            bodyLabel = globalContext.genNewLabel();
-        } else {
-            bodyLabel = codeBlock.firstLabel();
-        }
-        ifTemplate.add("ifBodyLabel", bodyLabel);
-        ifTemplate.add("ifBodyCode", codeBlock.code());
 
         Statement else_ = null;
-        globalContext.getLastScope().ifEndLabel = globalContext.genNewLabel();
-        ifTemplate.add("labelEnd", globalContext.getLastScope().ifEndLabel);
+        String labelEnd = globalContext.genNewLabel();
+        globalContext.getLastScope().ifEndLabel = labelEnd;
         if (ctx.else_() != null) {
             else_ = visit(ctx.else_());
-            ifTemplate.add("else_", else_.code());
             globalContext.getLastScope().nextElifLabel = else_.firstLabel();
         } else {
-            globalContext.getLastScope().nextElifLabel = globalContext.getLastScope().ifEndLabel;
+            globalContext.getLastScope().nextElifLabel = labelEnd;
         }
 
         /* visit elifs from right to left */
@@ -217,11 +255,20 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
             /* Inherited attribute */
             globalContext.getLastScope().nextElifLabel = elif.firstLabel();
         }
+
+        retarget(condition, bodyLabel, codeBlock.firstLabel());
+        retarget(condition, nextLabel, globalContext.getLastScope().nextElifLabel);
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(condition.code());
+        builder.append(codeBlock.code());
+        builder.branch(labelEnd);
         for (int i = elifs.size() - 1; i >= 0; --i) {
-            ifTemplate.add("elif", elifs.get(i).code());
+            builder.append(elifs.get(i).code());
         }
-        ifTemplate.add("next", globalContext.getLastScope().nextElifLabel);
-        return new Statement(null, ifTemplate.render());
+        if (else_ != null)
+            builder.append(else_.code());
+        builder.label(labelEnd);
+        return new Statement(null, builder.code());
     }
 
     /**
@@ -230,35 +277,26 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
      */
     @Override
     public Statement visitElif(cssParser.ElifContext ctx) {
-        Expression expression = ExpressionVisitor.getInstance(globalContext).visit(ctx.expression());
+        String bodyLabel = globalContext.genNewLabel();
+        Condition condition = ConditionVisitor.getInstance(globalContext).generate(ctx.expression(),
+                bodyLabel, globalContext.getLastScope().nextElifLabel);
         Statement body = visit(ctx.codeBlock());
-        if (expression.type() == VarType.VOID) {
+        if (condition.type() == VarType.VOID) {
             globalContext.handleFatalError("else if header cannot contain " +
                     "an expression of type 'void'");
         }
-        if (expression.dimensionCount() != 0) {
+        if (condition.dimensionCount() != 0) {
             globalContext.handleFatalError("if header can only contain a primitive non-array expression");
         }
 
-        ST elif = globalContext.templateGroup.getInstanceOf("elif");
-        elif.add("exprCode", expression.code());
-        elif.add("exprType", globalContext.variableTypeToLLType(expression.type()));
-        elif.add("exprReg", expression.returnRegister());
-        elif.add("tmpReg", globalContext.getNewReg());
-        elif.add("codeBody", body.code());
-        elif.add("next", globalContext.getLastScope().nextElifLabel);
+        retarget(condition, bodyLabel, body.firstLabel());
+        IrBuilder builder = globalContext.newBuilder();
         String firstLabel = globalContext.genNewLabel();
-        elif.add("firstLabel", firstLabel);
-        String bodyLabel;
-        if (body.firstLabel() == null) {
-            elif.add("addCodeBodyLabel", true);
-            bodyLabel = globalContext.genNewLabel();
-        } else {
-            bodyLabel = body.firstLabel();
-        }
-        elif.add("codeBodyLabel", bodyLabel);
-        elif.add("labelEnd", globalContext.getLastScope().ifEndLabel);
-        return new Statement(firstLabel, elif.render());
+        builder.label(firstLabel);
+        builder.append(condition.code());
+        builder.append(body.code());
+        builder.branch(globalContext.getLastScope().ifEndLabel);
+        return new Statement(firstLabel, builder.code());
     }
 
     /**
@@ -267,19 +305,22 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
      */
     @Override
     public Statement visitElse(cssParser.ElseContext ctx) {
-        ST elseStat = globalContext.templateGroup.getInstanceOf("else_");
         Statement codeBlock = visit(ctx.codeBlock());
-        String firstLabel;
-        if (codeBlock.firstLabel() == null) {
-            firstLabel = globalContext.genNewLabel();
-            elseStat.add("addFirstLabel", true);
-        } else {
-            firstLabel = codeBlock.firstLabel();
-        }
-        elseStat.add("firstLabel", firstLabel);
-        elseStat.add("code", codeBlock.code());
-        elseStat.add("labelEnd", globalContext.getLastScope().ifEndLabel);
-        return new Statement(firstLabel, elseStat.render());
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(codeBlock.code());
+        builder.branch(globalContext.getLastScope().ifEndLabel);
+        return new Statement(codeBlock.firstLabel(), builder.code());
+    }
+
+    /**
+     * Releases arrays allocated in the arena by the current iteration of the loop.
+     * Arrays declared after the statement are not allocated yet when it is executed.
+     */
+    private void releaseLoopArena(IrBuilder builder) {
+        ScopeInfo scope = globalContext.getLastScope();
+        if (scope.currentLoopArenaMark != null &&
+                globalContext.arenaAllocations != scope.currentLoopArenaAllocations)
+            builder.call("void", "__css_arena_release", List.of(scope.currentLoopArenaMark));
     }
 
     @Override
@@ -287,9 +328,10 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
         if (globalContext.getLastScope().currentLoopBegLabel == null) {
             globalContext.handleFatalError("continue statement must only be used inside a loop");
         }
-        ST template = globalContext.templateGroup.getInstanceOf("continue");
-        template.add("begLoopLabel", globalContext.getLastScope().currentLoopBegLabel);
-        return new Statement(null, template.render());
+        IrBuilder builder = globalContext.newBuilder();
+        releaseLoopArena(builder);
+        builder.branch(globalContext.getLastScope().currentLoopBegLabel);
+        return new Statement(null, builder.code());
     }
 
     @Override
@@ -297,30 +339,27 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
         if (globalContext.getLastScope().currentLoopEndLabel == null) {
             globalContext.handleFatalError("break statement must only be used inside a loop");
         }
-        ST template = globalContext.templateGroup.getInstanceOf("break");
-        template.add("endLoopLabel", globalContext.getLastScope().currentLoopEndLabel);
-        return new Statement(null, template.render());
+        IrBuilder builder = globalContext.newBuilder();
+        releaseLoopArena(builder);
+        builder.branch(globalContext.getLastScope().currentLoopEndLabel);
+        return new Statement(null, builder.code());
     }
 
     /**
-     * Generates code which prints to stdout.
-     * Uses printf function along with format strings
-     * whose sizes are stored in a map in GlobalContext.
-     * The strings are defined in a separate LLVM file
-     * format.ll. Only primitive type or strings can
-     * be printed.
+     * Generates code which writes a value to stdout
+     * by a call of the runtime library. Text of string
+     * literals and constants is left to the enclosing
+     * code block, see Statement.outputText().
      * @param ctx the parse tree
      */
     @Override
     public Statement visitStatementOutput(cssParser.StatementOutputContext ctx) {
         /* if the expression is empty, print a new line character */
-        if (ctx.expression() == null) {
-            String formatStringName = "@formatEndLine";
-            ST template = globalContext.templateGroup.getInstanceOf("callPrintfEndline");
-            template.add("tmpReg", globalContext.getNewReg());
-            template.add("formatStringSize", String.valueOf(globalContext.formatStringSizes.get(formatStringName)));
-            template.add("formatStringName", formatStringName);
-            return new Statement(null, template.render());
+        if (ctx.expression() == null)
+            return new Statement(null, new Code(), "\n");
+        if (ctx.expression() instanceof cssParser.BaseExprContext base && base.STRING() != null) {
+            String literal = base.STRING().getText();
+            return new Statement(null, new Code(), literal.substring(1, literal.length() - 1));
         }
 
         Expression value = ExpressionVisitor.getInstance(globalContext).visit(ctx.expression());
@@ -330,16 +369,13 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
             throw new RuntimeException("this never executes, just to suppress warnings");
         }
 
-        String formatStringName;
-        ST printfTemplate = globalContext.templateGroup.getInstanceOf("callPrintf");
-        printfTemplate.add("exprCode", value.code());
-        printfTemplate.add("tmpReg", globalContext.getNewReg());
+        String writeFunction;
         switch (value.type()) {
             case BYTE:
                 if (value.dimensionCount() == 0) {
-                    formatStringName = "@formatByte";
+                    writeFunction = "__css_write_byte";
                 } else if (value.dimensionCount() == 1) {
-                    formatStringName = "@formatStr";
+                    writeFunction = "__css_write_str";
                 } else {
                     globalContext.handleFatalError("only strings and primitive non-array " +
                             "expressions can be printed.");
@@ -347,7 +383,7 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
                 }
                 break;
             case INT:
-                formatStringName = "@formatInt";
+                writeFunction = "__css_write_int";
                 break;
             case VOID:
                 globalContext.handleFatalError("values of type void cannot be printed");
@@ -355,40 +391,39 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
             default:
                 throw new RuntimeException("This case should never happen.");
         }
-        printfTemplate.add("formatStringName", formatStringName);
-        printfTemplate.add("formatStringSize",
-                String.valueOf(globalContext.formatStringSizes.get(formatStringName)));
-        printfTemplate.add("valueType", globalContext.llPointer(value.type(), value.dimensionCount()));
-        printfTemplate.add("value", value.returnRegister());
-        return new Statement(null, printfTemplate.render());
+        if (value.code().isEmpty() && value.returnRegister() instanceof Constant constant) {
+            if (value.type() == VarType.INT)
+                return new Statement(null, new Code(), String.valueOf((int) constant.value()));
+            return new Statement(null, new Code(), String.valueOf((char) (constant.value() & 0xff)));
+        }
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(value.code());
+        builder.call("void", writeFunction, List.of(value.returnRegister()));
+        return new Statement(null, builder.code());
     }
 
     /**
-     * Generates code which reads from stdin.
-     * Uses scanf function along with format strings
-     * whose sizes are stored in a map in GlobalContext.
-     * The strings are defined in a separate LLVM file
-     * format.ll. Only primitive type or strings can
-     * be read.
+     * Generates code which reads from stdin by a call
+     * of the runtime library. The called function stores
+     * the value to the variable. Only primitive type
+     * or strings can be read.
      * @param ctx the parse tree
      */
     @Override
     public Statement visitStatementInput(cssParser.StatementInputContext ctx) {
-        ST template = globalContext.templateGroup.getInstanceOf("scanf");
-
         VariableExpression var = VariableExpressionVisitor.getInstance(globalContext).visit(ctx.variable());
         if (var.dimensionCount() > 0 && var.type() != VarType.BYTE) {
             globalContext.handleFatalError("only strings and primitive values can be read from stdin");
             throw new RuntimeException("this never executes, just to suppress warnings");
         }
 
-        String formatStringName;
+        String readFunction;
         switch (var.type()) {
             case BYTE:
                 if (var.dimensionCount() == 1) {
-                    formatStringName = "@formatStr";
+                    readFunction = "__css_read_str";
                 } else if (var.dimensionCount() == 0) {
-                    formatStringName = "@formatByte";
+                    readFunction = "__css_read_byte";
                 } else {
                     globalContext.handleFatalError("only strings and primitive values " +
                             "can be read from stdin");
@@ -396,7 +431,7 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
                 }
                 break;
             case INT:
-                formatStringName = "@formatInt";
+                readFunction = "__css_read_int";
                 break;
             case VOID:
                 globalContext.handleFatalError("cannot load a value to a void type");
@@ -405,18 +440,15 @@ public class StatementVisitor extends cssBaseVisitor<Statement> {
                 throw new RuntimeException("this should never happen");
         }
 
-        template.add("exprCode", var.code());
-        template.add("tmpReg", globalContext.getNewReg());
-        template.add("formatStringName", formatStringName);
-        template.add("formatStringSize",
-                String.valueOf(globalContext.formatStringSizes.get(formatStringName)));
+        IrBuilder builder = globalContext.newBuilder();
+        builder.append(var.code());
+        Value ptr;
         if (var.getPtrRegister() == null || var.dimensionCount() > 0) {
-            template.add("ptrType", globalContext.llPointer(var.type(), var.dimensionCount()));
-            template.add("ptr", var.returnRegister());
+            ptr = var.returnRegister();
         } else {
-            template.add("ptrType", globalContext.llPointer(var.type(), var.dimensionCount() + 1));
-            template.add("ptr", var.getPtrRegister());
+            ptr = var.getPtrRegister();
         }
-        return new Statement(null, template.render());
+        builder.call("void", readFunction, List.of(ptr));
+        return new Statement(null, builder.code());
     }
 }
@@ -0,0 +1,279 @@
+package org.compiler;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the wall time and the memory allocated by the phases
+ * of a compilation and by the generation of every function. Every measured
+ * section is also recorded as a Java Flight Recorder event, so a recording
+ * of a running compiler, e.g. of a compile server, attributes the compile
+ * time to phases and functions. Functions may be generated concurrently,
+ * the time and memory of a phase are summed over the threads running it.
+ */
+public class TimeReport {
+    public enum Phase {
+        LEXER("lexer"),
+        PARSER("parser"),
+        DECLARATIONS("declarations"),
+        VISITORS("visitors"),
+        PASSES("passes"),
+        TEMPLATES("templates"),
+        OUTPUT("output");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    @Name("org.compiler.Phase")
+    @Label("Compiler Phase")
+    @Category("C// Compiler")
+    @Description("A phase of a compilation, phases generating code belong to a function")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Source")
+        String source;
+        @Label("Phase")
+        String phase;
+        @Label("Function")
+        String function;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("org.compiler.Function")
+    @Label("Function Generation")
+    @Category("C// Compiler")
+    @Description("Generation of the code of a function, including its passes")
+    @StackTrace(false)
+    static class FunctionEvent extends Event {
+        @Label("Source")
+        String source;
+        @Label("Function")
+        String function;
+        @Label("Cached")
+        @Description("The code was taken from the function cache")
+        boolean cached;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    /**
+     * Work measured by a section, it may throw a checked exception.
+     */
+    @FunctionalInterface
+    public interface Work<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * Work without a result measured by a section.
+     */
+    @FunctionalInterface
+    public interface Action<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * A measured section of the compilation, closing it records the measurement.
+     */
+    private abstract class Section implements AutoCloseable {
+        private final long startNanos = System.nanoTime();
+        private final long startBytes = allocatedBytes();
+
+        private Section() {
+
+        }
+
+        @Override
+        public void close() {
+            record(System.nanoTime() - startNanos, allocatedBytes() - startBytes);
+        }
+
+        abstract void record(long nanos, long bytes);
+    }
+
+    /**
+     * A function measured by timeFunction().
+     */
+    private record FunctionTime(int index, String name, boolean cached, long nanos, long bytes) {
+
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final String source;
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+    private final LongAdder[] phaseBytes = new LongAdder[Phase.values().length];
+    private final ConcurrentLinkedQueue<FunctionTime> functions = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param source name of the compiled source
+     */
+    public TimeReport(String source) {
+        this.source = source;
+        for (int i = 0; i < phaseNanos.length; ++i) {
+            phaseNanos[i] = new LongAdder();
+            phaseBytes[i] = new LongAdder();
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far,
+     * zero if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Measures a phase of the whole program.
+     * @return result of the work
+     */
+    public <T, E extends Exception> T time(Phase phase, Work<T, E> work) throws E {
+        return time(phase, null, work);
+    }
+
+    public <E extends Exception> void time(Phase phase, Action<E> action) throws E {
+        time(phase, null, action);
+    }
+
+    /**
+     * Measures a phase of generating a function.
+     * @param function name of the function, null for a phase of the whole program
+     * @return result of the work
+     */
+    public <T, E extends Exception> T time(Phase phase, String function, Work<T, E> work) throws E {
+        return measure(phase(phase, function), work);
+    }
+
+    public <E extends Exception> void time(Phase phase, String function, Action<E> action) throws E {
+        measure(phase(phase, function), () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Measures the generation of a function, which contains the phases of the function.
+     * @param index position of the function in the program
+     * @param cached true if the code is taken from the function cache
+     * @return result of the work
+     */
+    public <T, E extends Exception> T timeFunction(int index, String name, boolean cached,
+                                                   Work<T, E> work) throws E {
+        return measure(function(index, name, cached), work);
+    }
+
+    /**
+     * Runs the work and records the section, even if the work fails.
+     */
+    private static <T, E extends Exception> T measure(Section section, Work<T, E> work) throws E {
+        try (section) {
+            return work.run();
+        }
+    }
+
+    private Section phase(Phase phase, String function) {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        return new Section() {
+            @Override
+            void record(long nanos, long bytes) {
+                phaseNanos[phase.ordinal()].add(nanos);
+                phaseBytes[phase.ordinal()].add(bytes);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.source = source;
+                    event.phase = phase.label();
+                    event.function = function;
+                    event.allocated = bytes;
+                    event.commit();
+                }
+            }
+        };
+    }
+
+    private Section function(int index, String name, boolean cached) {
+        FunctionEvent event = new FunctionEvent();
+        event.begin();
+        return new Section() {
+            @Override
+            void record(long nanos, long bytes) {
+                functions.add(new FunctionTime(index, name, cached, nanos, bytes));
+                event.end();
+                if (event.shouldCommit()) {
+                    event.source = source;
+                    event.function = name;
+                    event.cached = cached;
+                    event.allocated = bytes;
+                    event.commit();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the time and memory of every phase, their totals
+     * and the time and memory of every function in program order.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "time report for %s: %.2f ms wall time%n", source,
+                (System.nanoTime() - startNanos) / 1e6));
+        sb.append(String.format(Locale.ROOT, "  %-24s %10s %15s%n", "phase", "time (ms)", "allocated (MB)"));
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (Phase phase : Phase.values()) {
+            long nanos = phaseNanos[phase.ordinal()].sum();
+            long bytes = phaseBytes[phase.ordinal()].sum();
+            totalNanos += nanos;
+            totalBytes += bytes;
+            sb.append(line(phase.label(), nanos, bytes));
+        }
+        sb.append(line("total of all threads", totalNanos, totalBytes));
+
+        ArrayList<FunctionTime> sorted = new ArrayList<>(functions);
+        sorted.sort(Comparator.comparingInt(FunctionTime::index));
+        sb.append(String.format(Locale.ROOT, "  %-24s %10s %15s%n", "function", "time (ms)", "allocated (MB)"));
+        for (FunctionTime function : sorted)
+            sb.append(line(function.cached() ? function.name() + " (cached)" : function.name(),
+                    function.nanos(), function.bytes()));
+        return sb.toString();
+    }
+
+    private static String line(String name, long nanos, long bytes) {
+        return String.format(Locale.ROOT, "  %-24s %10.2f %15.2f%n", name, nanos / 1e6, bytes / (1024.0 * 1024.0));
+    }
+}
@@ -6,10 +6,9 @@ import org.gen.*;
  * Visits type non-terminal and returns one of enum values.
  */
 public class TypeVisitor extends cssBaseVisitor<VarType> {
-    private static TypeVisitor instance = null;
+    /* the visitor has no state, so it is shared by all threads */
+    private static final TypeVisitor instance = new TypeVisitor();
     public static TypeVisitor getInstance() {
-        if (instance == null)
-            instance = new TypeVisitor();
         return instance;
     }
 
@@ -1,25 +1,31 @@
 package org.compiler;
 
+import org.compiler.ir.Value;
+
 /**
  * Represents a source program variable.
  */
 public class Variable {
-    private String llName;
+    /*
+     * LLVM value representing the variable, i.e. address of a scalar or the array itself.
+     * A scalar which is never assigned after its constant initialization is the constant.
+     */
+    private Value llValue;
     private final VarType variableType;
     private final int dimensionCount;
 
-    public Variable(String llName, VarType type, int dimensionCount) {
-        this.llName = llName;
+    public Variable(Value llValue, VarType type, int dimensionCount) {
+        this.llValue = llValue;
         this.variableType = type;
         this.dimensionCount = dimensionCount;
     }
 
-    public String getLlName() {
-        return llName;
+    public Value getLlValue() {
+        return llValue;
     }
 
-    public void setLlName(String newName) {
-        llName = newName;
+    public void setLlValue(Value newValue) {
+        llValue = newValue;
     }
 
     public VarType getType() {
@@ -1,5 +1,8 @@
 package org.compiler;
 
+import org.compiler.ir.Code;
+import org.compiler.ir.Value;
+
 /**
  * An extension to Expression class. Contains variable name and ptrRegsiter
  * in addition to Expression which is useful when for instance
@@ -7,17 +10,17 @@ package org.compiler;
  * is needed for store instruction not the register containing the value.
  */
 public class VariableExpression {
-    private final String code;
-    private final String returnRegister;
+    private final Code code;
+    private final Value returnRegister;
     private final VarType type;
     private final int dimensionCount;
 
     /* extensions to Expression class */
     private final String varName;
-    private final String ptrRegister;
+    private final Value ptrRegister;
 
-    public VariableExpression(String code, String returnRegister, VarType type, int dimensionCount,
-                              String varName, String ptrRegister)
+    public VariableExpression(Code code, Value returnRegister, VarType type, int dimensionCount,
+                              String varName, Value ptrRegister)
     {
         this.code = code;
         this.returnRegister = returnRegister;
@@ -27,11 +30,11 @@ public class VariableExpression {
         this.ptrRegister = ptrRegister;
     }
 
-    public String code() {
+    public Code code() {
         return code;
     }
 
-    public String returnRegister() {
+    public Value returnRegister() {
         return returnRegister;
     }
 
@@ -48,7 +51,7 @@ public class VariableExpression {
         return varName;
     }
 
-    public String getPtrRegister() {
+    public Value getPtrRegister() {
         return ptrRegister;
     }
 }
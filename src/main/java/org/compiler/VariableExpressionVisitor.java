@@ -1,7 +1,12 @@
 package org.compiler;
 
+import org.compiler.ir.BinaryInstruction;
+import org.compiler.ir.Code;
+import org.compiler.ir.Constant;
+import org.compiler.ir.IrBuilder;
+import org.compiler.ir.Register;
+import org.compiler.ir.Value;
 import org.gen.*;
-import org.stringtemplate.v4.ST;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -10,12 +15,8 @@ import java.util.List;
  * Visits an expression representing a variable value.
  */
 public class VariableExpressionVisitor extends cssBaseVisitor<VariableExpression> {
-    private static VariableExpressionVisitor instance = null;
-
     public static VariableExpressionVisitor getInstance(GlobalContext globalContext) {
-        if (instance == null)
-            instance = new VariableExpressionVisitor(globalContext);
-        return instance;
+        return globalContext.getVisitor(VariableExpressionVisitor.class, VariableExpressionVisitor::new);
     }
 
     private final GlobalContext globalContext;
@@ -38,54 +39,63 @@ public class VariableExpressionVisitor extends cssBaseVisitor<VariableExpression
      * which corresponds to dereference and its value.
      */
     private VariableExpression dereferenceLocalVar(Variable var, String varName) {
-        ST template = globalContext.templateGroup.getInstanceOf("dereference");
-        String destReg = globalContext.getNewReg();
-        template.add("destReg", destReg);
-        template.add("destType", globalContext.variableTypeToLLType(var.getType()));
-        template.add("ptr", var.getLlName());
-        template.add("ptrType",
-                globalContext.llPointer(var.getType(), 1));
-        return new VariableExpression(template.render(), destReg, var.getType(), 0,
-                varName, var.getLlName());
+        if (var.getLlValue() instanceof Constant)
+            return new VariableExpression(new Code(), var.getLlValue(), var.getType(), 0, varName, null);
+        IrBuilder builder = globalContext.newBuilder();
+        Register destReg = builder.load(var.getLlValue());
+        return new VariableExpression(builder.code(), destReg, var.getType(), 0,
+                varName, var.getLlValue());
     }
 
     /**
      * Returns code and Expression structure which corresponds
-     * to array access.
+     * to array access. Indexing a multi-dimensional array computes
+     * the offset of the element from the strides, see GlobalContext.llArrayType.
+     * If fewer indices than dimensions are given, the result is the subarray
+     * sharing memory with the array and has no address to be assigned.
      */
     private VariableExpression arrayAccess(Variable var, List<Expression> expressionList, String varName) {
-        String destReg = var.getLlName();
+        Value array = var.getLlValue();
         int n = expressionList.size();
+        int dimensionCount = var.getDimensionCount();
         if (n == 0)
-            return new VariableExpression("", destReg, var.getType(),
-                    var.getDimensionCount(), varName, null);
+            return new VariableExpression(new Code(), array, var.getType(),
+                    dimensionCount, varName, null);
+
+        IrBuilder builder = globalContext.newBuilder();
+        for (Expression expression : expressionList)
+            builder.append(expression.code());
+        if (dimensionCount == 1) {
+            Register element = builder.getElementPtr(array, expressionList.get(0).returnRegister());
+            return new VariableExpression(builder.code(), builder.load(element),
+                    var.getType(), 0, varName, element);
+        }
 
-        ST multiLevelIndexing = globalContext.templateGroup.getInstanceOf("arrayMultiLevelIndexing");
-        String tmpReg = null;
-        /* dereference a pointer to get a lower level pointer and ultimately the final value */
+        Value offset = null;
         for (int i = 0; i < n; ++i) {
-            Expression expression = expressionList.get(i);
-            String ptrReg = destReg;
-            destReg = globalContext.getNewReg();
-            ST arrayIndex = globalContext.templateGroup.getInstanceOf("arrayIndexing");
-            tmpReg = globalContext.getNewReg();
-            arrayIndex.add("tmpReg", tmpReg);
-            arrayIndex.add("destReg", destReg);
-            arrayIndex.add("ptrReg", ptrReg);
-            String ptrType = globalContext.llPointer(var.getType(),
-                    var.getDimensionCount() - i);
-            String tmpDestType = globalContext.llPointer(var.getType(),
-                    var.getDimensionCount() - i - 1);
-            arrayIndex.add("destType", tmpDestType);
-            arrayIndex.add("ptrType", ptrType);
-            arrayIndex.add("indexType", globalContext.variableTypeToLLType(expression.type()));
-            arrayIndex.add("indexReg", expression.returnRegister());
-            arrayIndex.add("expressionCode", expression.code());
-            multiLevelIndexing.add("indexing", arrayIndex.render());
+            Value index = ExpressionVisitor.extendToInt(builder, expressionList.get(i).returnRegister());
+            if (i < dimensionCount - 1)
+                index = ExpressionVisitor.binary(builder, BinaryInstruction.Operator.MUL,
+                        index, builder.extractValue(array, i + 1));
+            offset = offset == null ? index :
+                    ExpressionVisitor.binary(builder, BinaryInstruction.Operator.ADD, offset, index);
         }
+        Register element = builder.getElementPtr(builder.extractValue(array, 0), offset);
+        if (n == dimensionCount)
+            return new VariableExpression(builder.code(), builder.load(element),
+                    var.getType(), 0, varName, element);
+        if (n == dimensionCount - 1)
+            return new VariableExpression(builder.code(), element,
+                    var.getType(), 1, varName, null);
 
-        return new VariableExpression(multiLevelIndexing.render(), destReg,
-                var.getType(), var.getDimensionCount() - n, varName, tmpReg);
+        /* the subarray keeps the strides of the remaining dimensions */
+        ArrayList<Value> members = new ArrayList<>(dimensionCount - n);
+        members.add(element);
+        for (int i = n; i < dimensionCount - 1; ++i)
+            members.add(builder.extractValue(array, i + 1));
+        Value subarray = builder.aggregate(globalContext.llArrayType(var.getType(), dimensionCount - n), members);
+        return new VariableExpression(builder.code(), subarray,
+                var.getType(), dimensionCount - n, varName, null);
     }
 
     @Override
@@ -0,0 +1,73 @@
+package org.compiler;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.Locale;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Recompiles a source file whenever it changes. The file is parsed
+ * again after every change, but only functions which changed or whose
+ * callees changed their signatures are generated again, code of the other
+ * functions is taken from the previous compilation.
+ */
+public class WatchCompiler {
+    private final Compiler compiler = new Compiler();
+    private final FunctionCache cache = new FunctionCache();
+
+    public WatchCompiler() {
+
+    }
+
+    /**
+     * Compiles the file and then waits for changes until the thread is interrupted.
+     */
+    public void watch(CompilerOptions options, String outputFile, PrintStream report, PrintStream errors)
+            throws IOException, InterruptedException {
+        Path input = Path.of(options.inputFile()).toAbsolutePath();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            input.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            rebuild(options, outputFile, report, errors);
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (input.getFileName().equals(event.context()))
+                        changed = true;
+                }
+                key.reset();
+                if (!changed)
+                    continue;
+
+                /* editors save a file in several steps, wait until the last one */
+                Thread.sleep(50);
+                while ((key = watchService.poll()) != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                rebuild(options, outputFile, report, errors);
+            }
+        }
+    }
+
+    private void rebuild(CompilerOptions options, String outputFile, PrintStream report, PrintStream errors) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            compiler.compileFile(options.inputFile(), outputFile, options, cache);
+            success = true;
+            report.printf(Locale.ROOT, "%s -> %s: generated %d of %d functions in %.1f ms%n",
+                    options.inputFile(), outputFile, cache.getMisses(),
+                    cache.getHits() + cache.getMisses(), (System.nanoTime() - start) / 1e6);
+        } catch (CompilationException e) {
+            errors.println(options.inputFile() + ": " + e.getMessage());
+        } catch (RuntimeException | StackOverflowError e) {
+            errors.println(options.inputFile() + ": Fatal compilation error.");
+        } finally {
+            cache.finishCompilation(success);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allocates memory on stack for one or more
+ * elements of the allocated type.
+ */
+public class AllocaInstruction extends Instruction {
+    private final Register result;
+    private final String allocatedType;
+    /* might be null if a single element is allocated */
+    private Value count;
+
+    public AllocaInstruction(Register result, String allocatedType, Value count) {
+        this.result = result;
+        this.allocatedType = allocatedType;
+        this.count = count;
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public String allocatedType() {
+        return allocatedType;
+    }
+
+    public Value count() {
+        return count;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return count == null ? List.of() : List.of(count);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        count = replacement(count, replacements);
+    }
+}
@@ -0,0 +1,53 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A labeled sequence of instructions which is only entered at its
+ * beginning and ends with exactly one terminator instruction.
+ */
+public class BasicBlock {
+    private final String name;
+    private final ArrayList<Instruction> instructions = new ArrayList<>();
+
+    /**
+     * @param name label of the block without '%'
+     */
+    public BasicBlock(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns the mutable list of instructions including the terminator.
+     */
+    public List<Instruction> instructions() {
+        return instructions;
+    }
+
+    public void append(Instruction instruction) {
+        instructions.add(instruction);
+    }
+
+    /**
+     * Returns the last instruction or null if the block is not terminated yet.
+     */
+    public Instruction terminator() {
+        if (instructions.isEmpty())
+            return null;
+        Instruction last = instructions.get(instructions.size() - 1);
+        return last.isTerminator() ? last : null;
+    }
+
+    /**
+     * Returns labels of the blocks control may be passed to from this block.
+     */
+    public List<String> successors() {
+        Instruction terminator = terminator();
+        return terminator == null ? List.of() : terminator.successors();
+    }
+}
@@ -0,0 +1,69 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arithmetic or bitwise operation on two values of the same type.
+ */
+public class BinaryInstruction extends Instruction {
+    public enum Operator {
+        ADD("add"),
+        SUB("sub"),
+        MUL("mul"),
+        SDIV("sdiv"),
+        SREM("srem"),
+        AND("and"),
+        OR("or");
+
+        private final String opcode;
+
+        Operator(String opcode) {
+            this.opcode = opcode;
+        }
+
+        public String opcode() {
+            return opcode;
+        }
+    }
+
+    private final Operator operator;
+    private final Register result;
+    private Value lhs;
+    private Value rhs;
+
+    public BinaryInstruction(Operator operator, Register result, Value lhs, Value rhs) {
+        this.operator = operator;
+        this.result = result;
+        this.lhs = lhs;
+        this.rhs = rhs;
+    }
+
+    public Operator operator() {
+        return operator;
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public Value lhs() {
+        return lhs;
+    }
+
+    public Value rhs() {
+        return rhs;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return List.of(lhs, rhs);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        lhs = replacement(lhs, replacements);
+        rhs = replacement(rhs, replacements);
+    }
+}
@@ -0,0 +1,34 @@
+package org.compiler.ir;
+
+import java.util.List;
+
+/**
+ * Unconditional jump to a label.
+ */
+public class BranchInstruction extends Instruction {
+    private String target;
+
+    public BranchInstruction(String target) {
+        this.target = target;
+    }
+
+    public String target() {
+        return target;
+    }
+
+    @Override
+    public boolean isTerminator() {
+        return true;
+    }
+
+    @Override
+    public List<String> successors() {
+        return List.of(target);
+    }
+
+    @Override
+    public void replaceSuccessor(String from, String to) {
+        if (target.equals(from))
+            target = to;
+    }
+}
@@ -0,0 +1,91 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Direct call of a function.
+ */
+public class CallInstruction extends Instruction {
+    /**
+     * Marker of a call in tail position, see TailCallPass.
+     */
+    public enum Tail {
+        NONE(""),
+        /* the callee does not access the stack of the caller */
+        TAIL("tail "),
+        /* in addition, the caller and the callee have the same prototype, the call must be a jump */
+        MUSTTAIL("musttail ");
+
+        private final String prefix;
+
+        Tail(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public String prefix() {
+            return prefix;
+        }
+    }
+
+    /* null if the function returns void */
+    private final Register result;
+    private final String returnType;
+    /* function type, only needed for variadic functions, e.g. (i8*, ...) */
+    private final String signature;
+    private final String callee;
+    private final ArrayList<Value> arguments;
+    private Tail tail = Tail.NONE;
+
+    /**
+     * @param callee name of the called function without '@'
+     */
+    public CallInstruction(Register result, String returnType, String signature,
+                           String callee, List<Value> arguments) {
+        this.result = result;
+        this.returnType = returnType;
+        this.signature = signature;
+        this.callee = callee;
+        this.arguments = new ArrayList<>(arguments);
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public String returnType() {
+        return returnType;
+    }
+
+    public String signature() {
+        return signature;
+    }
+
+    public String callee() {
+        return callee;
+    }
+
+    public List<Value> arguments() {
+        return arguments;
+    }
+
+    public Tail tail() {
+        return tail;
+    }
+
+    public void setTail(Tail tail) {
+        this.tail = tail;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return arguments;
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        arguments.replaceAll(argument -> replacement(argument, replacements));
+    }
+}
@@ -0,0 +1,60 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversion of a value to a different type.
+ * The destination type is the type of the result register.
+ */
+public class CastInstruction extends Instruction {
+    public enum Operator {
+        ZEXT("zext"),
+        SEXT("sext"),
+        TRUNC("trunc"),
+        BITCAST("bitcast");
+
+        private final String opcode;
+
+        Operator(String opcode) {
+            this.opcode = opcode;
+        }
+
+        public String opcode() {
+            return opcode;
+        }
+    }
+
+    private final Operator operator;
+    private final Register result;
+    private Value value;
+
+    public CastInstruction(Operator operator, Register result, Value value) {
+        this.operator = operator;
+        this.result = result;
+        this.value = value;
+    }
+
+    public Operator operator() {
+        return operator;
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public Value value() {
+        return value;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return List.of(value);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        value = replacement(value, replacements);
+    }
+}
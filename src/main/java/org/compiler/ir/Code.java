@@ -0,0 +1,40 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An ordered sequence of instructions. Code of expressions
+ * and statements is concatenated in the same order as it is executed.
+ */
+public class Code implements Iterable<Instruction> {
+    private final ArrayList<Instruction> instructions = new ArrayList<>();
+
+    public Code() {
+
+    }
+
+    public Code append(Instruction instruction) {
+        instructions.add(instruction);
+        return this;
+    }
+
+    public Code append(Code code) {
+        instructions.addAll(code.instructions);
+        return this;
+    }
+
+    public List<Instruction> instructions() {
+        return instructions;
+    }
+
+    public boolean isEmpty() {
+        return instructions.isEmpty();
+    }
+
+    @Override
+    public Iterator<Instruction> iterator() {
+        return instructions.iterator();
+    }
+}
@@ -0,0 +1,69 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Integer comparison. The result is always of type i1.
+ */
+public class CompareInstruction extends Instruction {
+    public enum Predicate {
+        EQ("eq"),
+        NE("ne"),
+        SGT("sgt"),
+        SGE("sge"),
+        SLT("slt"),
+        SLE("sle"),
+        ULT("ult");
+
+        private final String name;
+
+        Predicate(String name) {
+            this.name = name;
+        }
+
+        public String predicateName() {
+            return name;
+        }
+    }
+
+    private final Predicate predicate;
+    private final Register result;
+    private Value lhs;
+    private Value rhs;
+
+    public CompareInstruction(Predicate predicate, Register result, Value lhs, Value rhs) {
+        this.predicate = predicate;
+        this.result = result;
+        this.lhs = lhs;
+        this.rhs = rhs;
+    }
+
+    public Predicate predicate() {
+        return predicate;
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public Value lhs() {
+        return lhs;
+    }
+
+    public Value rhs() {
+        return rhs;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return List.of(lhs, rhs);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        lhs = replacement(lhs, replacements);
+        rhs = replacement(rhs, replacements);
+    }
+}
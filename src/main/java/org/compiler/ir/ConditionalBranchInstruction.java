@@ -0,0 +1,59 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Jumps to one of two labels depending on an i1 condition.
+ */
+public class ConditionalBranchInstruction extends Instruction {
+    private Value condition;
+    private String trueTarget;
+    private String falseTarget;
+
+    public ConditionalBranchInstruction(Value condition, String trueTarget, String falseTarget) {
+        this.condition = condition;
+        this.trueTarget = trueTarget;
+        this.falseTarget = falseTarget;
+    }
+
+    public Value condition() {
+        return condition;
+    }
+
+    public String trueTarget() {
+        return trueTarget;
+    }
+
+    public String falseTarget() {
+        return falseTarget;
+    }
+
+    @Override
+    public boolean isTerminator() {
+        return true;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return List.of(condition);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        condition = replacement(condition, replacements);
+    }
+
+    @Override
+    public List<String> successors() {
+        return List.of(trueTarget, falseTarget);
+    }
+
+    @Override
+    public void replaceSuccessor(String from, String to) {
+        if (trueTarget.equals(from))
+            trueTarget = to;
+        if (falseTarget.equals(from))
+            falseTarget = to;
+    }
+}
@@ -0,0 +1,22 @@
+package org.compiler.ir;
+
+/**
+ * Represents an integer constant.
+ */
+public class Constant extends Value {
+    private final long value;
+
+    public Constant(String type, long value) {
+        super(type);
+        this.value = value;
+    }
+
+    public long value() {
+        return value;
+    }
+
+    @Override
+    public String ref() {
+        return String.valueOf(value);
+    }
+}
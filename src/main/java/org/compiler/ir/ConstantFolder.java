@@ -0,0 +1,88 @@
+package org.compiler.ir;
+
+/**
+ * Evaluates instructions whose operands are constants.
+ * Values of constants are kept sign extended to 64 bits, so the folded
+ * results wrap around exactly like the instructions do at runtime.
+ * The fold functions return null if the result must not be folded.
+ */
+public final class ConstantFolder {
+    private ConstantFolder() {
+
+    }
+
+    /**
+     * Returns the number of bits of an integer type, e.g. 8 for i8.
+     */
+    private static int bits(String type) {
+        if (!type.startsWith("i"))
+            throw new IllegalArgumentException("not an integer type: " + type);
+        return Integer.parseInt(type.substring(1));
+    }
+
+    /**
+     * Returns a constant of the given type, the value
+     * is truncated to the width of the type. Booleans are 0 or 1.
+     */
+    public static Constant constant(String type, long value) {
+        int bits = bits(type);
+        if (bits == 1)
+            return new Constant(type, value & 1);
+        return new Constant(type, value << (64 - bits) >> (64 - bits));
+    }
+
+    /**
+     * Folds an arithmetic or bitwise operation. Division by zero
+     * and the overflowing division of the minimal value by -1 are left
+     * to the runtime, since their behaviour is undefined.
+     */
+    public static Constant binary(BinaryInstruction.Operator operator, Constant lhs, Constant rhs) {
+        long a = lhs.value();
+        long b = rhs.value();
+        String type = lhs.type();
+        if ((operator == BinaryInstruction.Operator.SDIV || operator == BinaryInstruction.Operator.SREM) &&
+                (b == 0 || (b == -1 && a == Long.MIN_VALUE >> (64 - bits(type)))))
+            return null;
+        return switch (operator) {
+            case ADD -> constant(type, a + b);
+            case SUB -> constant(type, a - b);
+            case MUL -> constant(type, a * b);
+            case SDIV -> constant(type, a / b);
+            case SREM -> constant(type, a % b);
+            case AND -> constant(type, a & b);
+            case OR -> constant(type, a | b);
+        };
+    }
+
+    /**
+     * Folds a comparison, the result is of type i1.
+     */
+    public static Constant compare(CompareInstruction.Predicate predicate, Constant lhs, Constant rhs) {
+        long a = lhs.value();
+        long b = rhs.value();
+        boolean result = switch (predicate) {
+            case EQ -> a == b;
+            case NE -> a != b;
+            case SGT -> a > b;
+            case SGE -> a >= b;
+            case SLT -> a < b;
+            case SLE -> a <= b;
+            case ULT -> {
+                long mask = -1L >>> (64 - bits(lhs.type()));
+                yield Long.compareUnsigned(a & mask, b & mask) < 0;
+            }
+        };
+        return new Constant("i1", result ? 1 : 0);
+    }
+
+    /**
+     * Folds a conversion of an integer constant. Pointers are never constant.
+     */
+    public static Constant cast(CastInstruction.Operator operator, Constant value, String destinationType) {
+        return switch (operator) {
+            case ZEXT -> new Constant(destinationType, value.value() & (-1L >>> (64 - bits(value.type()))));
+            case SEXT, TRUNC -> constant(destinationType, value.value());
+            case BITCAST -> null;
+        };
+    }
+}
@@ -0,0 +1,287 @@
+package org.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes code which cannot run or whose effect cannot be observed.
+ * Branches on constant conditions become jumps, so the code after return,
+ * break and continue as well as the branch not taken become unreachable
+ * and are removed. Instructions without side effects whose result is
+ * never used are removed, as are stores to memory of the function which
+ * is never read, e.g. a local array that is only assigned. Finally, blocks
+ * which only jump to another block are bypassed and a block is merged into
+ * its only predecessor if the predecessor always jumps to it.
+ */
+public class DeadCodeEliminationPass implements Pass {
+    public DeadCodeEliminationPass() {
+
+    }
+
+    @Override
+    public String name() {
+        return "dce";
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        boolean changed = foldConstantBranches(function);
+        changed |= function.removeUnreachableBlocks();
+        boolean removed;
+        do {
+            removed = removeDeadInstructions(function);
+            removed |= removeDeadStores(function);
+            changed |= removed;
+        } while (removed);
+        changed |= bypassEmptyBlocks(function);
+        changed |= mergeBlocks(function);
+        return changed;
+    }
+
+    /**
+     * Replaces conditional branches whose condition is a constant
+     * or whose targets are equal by jumps, the target not taken
+     * forgets the values of its phis coming from the block.
+     */
+    private static boolean foldConstantBranches(IrFunction function) {
+        Map<String, BasicBlock> byName = function.blockMap();
+        boolean changed = false;
+        for (BasicBlock block : function.blocks()) {
+            if (!(block.terminator() instanceof ConditionalBranchInstruction branch))
+                continue;
+            String taken;
+            if (branch.trueTarget().equals(branch.falseTarget()))
+                taken = branch.trueTarget();
+            else if (branch.condition() instanceof Constant condition)
+                taken = condition.value() != 0 ? branch.trueTarget() : branch.falseTarget();
+            else
+                continue;
+            String notTaken = taken.equals(branch.trueTarget()) ? branch.falseTarget() : branch.trueTarget();
+            if (!notTaken.equals(taken)) {
+                for (Instruction instruction : byName.get(notTaken).instructions()) {
+                    if (!(instruction instanceof PhiInstruction phi))
+                        break;
+                    phi.removeIncoming(block.name());
+                }
+            }
+            List<Instruction> instructions = block.instructions();
+            instructions.set(instructions.size() - 1, new BranchInstruction(taken));
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns true if the instruction only computes its result,
+     * so it can be removed if the result is not used.
+     * Calls are kept, since the called function might have side effects.
+     */
+    private static boolean isRemovable(Instruction instruction) {
+        return instruction.result() != null && !(instruction instanceof CallInstruction);
+    }
+
+    /**
+     * Removes instructions whose results are not used by instructions
+     * with side effects, neither directly nor through other instructions.
+     */
+    private static boolean removeDeadInstructions(IrFunction function) {
+        Map<Value, Instruction> definitions = new IdentityHashMap<>();
+        Set<Instruction> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<Instruction> worklist = new ArrayDeque<>();
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction.result() != null)
+                    definitions.put(instruction.result(), instruction);
+                if (!isRemovable(instruction) && live.add(instruction))
+                    worklist.add(instruction);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            for (Value operand : worklist.poll().operands()) {
+                Instruction definition = definitions.get(operand);
+                if (definition != null && live.add(definition))
+                    worklist.add(definition);
+            }
+        }
+
+        boolean changed = false;
+        for (BasicBlock block : function.blocks())
+            changed |= block.instructions().removeIf(instruction -> !live.contains(instruction));
+        return changed;
+    }
+
+    /**
+     * Removes stores to memory allocated by the function whose addresses
+     * are only used to store to it. The memory is never read,
+     * neither by the function nor by a function it is passed to.
+     */
+    private static boolean removeDeadStores(IrFunction function) {
+        Map<Value, Instruction> definitions = new IdentityHashMap<>();
+        Set<Value> unread = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction.result() == null)
+                    continue;
+                definitions.put(instruction.result(), instruction);
+                if (instruction instanceof AllocaInstruction || (instruction instanceof CallInstruction call
+                        && call.callee().equals("__css_arena_alloc")))
+                    unread.add(instruction.result());
+            }
+        }
+        if (unread.isEmpty())
+            return false;
+
+        /* any use except computing an address and storing to it may read the memory */
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                for (Value operand : instruction.operands()) {
+                    if (instruction instanceof GetElementPtrInstruction gep && operand == gep.pointer()
+                            || instruction instanceof CastInstruction cast && cast.result().type().endsWith("*")
+                            || instruction instanceof StoreInstruction store && operand == store.pointer()
+                            && operand != store.value())
+                        continue;
+                    unread.remove(rootObject(operand, definitions));
+                }
+            }
+        }
+        if (unread.isEmpty())
+            return false;
+
+        boolean changed = false;
+        for (BasicBlock block : function.blocks()) {
+            changed |= block.instructions().removeIf(instruction -> instruction instanceof StoreInstruction store
+                    && unread.contains(rootObject(store.pointer(), definitions)));
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the object a pointer points into, i.e. follows
+     * address computations and conversions of pointers.
+     */
+    private static Value rootObject(Value pointer, Map<Value, Instruction> definitions) {
+        while (true) {
+            Instruction definition = definitions.get(pointer);
+            if (definition instanceof GetElementPtrInstruction gep)
+                pointer = gep.pointer();
+            else if (definition instanceof CastInstruction cast && cast.result().type().endsWith("*"))
+                pointer = cast.value();
+            else
+                return pointer;
+        }
+    }
+
+    /**
+     * Makes the predecessors of blocks consisting of a single jump
+     * jump to its target directly and removes the blocks. A block is kept
+     * if a predecessor already jumps to the target and the target has phis,
+     * since the phis could not tell the two paths apart.
+     */
+    private static boolean bypassEmptyBlocks(IrFunction function) {
+        Map<String, BasicBlock> byName = function.blockMap();
+        Map<BasicBlock, List<BasicBlock>> predecessors = function.predecessors();
+        Set<BasicBlock> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BasicBlock block : function.blocks()) {
+            if (block == function.entry() || block.instructions().size() != 1
+                    || !(block.terminator() instanceof BranchInstruction branch))
+                continue;
+            BasicBlock target = byName.get(branch.target());
+            if (target == block)
+                continue;
+            List<BasicBlock> blockPredecessors = predecessors.get(block);
+            List<BasicBlock> targetPredecessors = predecessors.get(target);
+            boolean hasPhis = target.instructions().get(0) instanceof PhiInstruction;
+            if (hasPhis && blockPredecessors.stream().anyMatch(targetPredecessors::contains))
+                continue;
+
+            for (BasicBlock predecessor : blockPredecessors) {
+                List<Instruction> instructions = predecessor.instructions();
+                Instruction terminator = instructions.get(instructions.size() - 1);
+                terminator.replaceSuccessor(block.name(), target.name());
+                if (terminator instanceof ConditionalBranchInstruction conditional
+                        && conditional.trueTarget().equals(conditional.falseTarget()))
+                    instructions.set(instructions.size() - 1, new BranchInstruction(target.name()));
+                if (!targetPredecessors.contains(predecessor))
+                    targetPredecessors.add(predecessor);
+            }
+            for (Instruction instruction : target.instructions()) {
+                if (!(instruction instanceof PhiInstruction phi))
+                    break;
+                Value value = phi.values().get(phi.blocks().indexOf(block.name()));
+                phi.removeIncoming(block.name());
+                for (BasicBlock predecessor : blockPredecessors)
+                    phi.addIncoming(value, predecessor.name());
+            }
+            /* the target might be bypassed later */
+            targetPredecessors.remove(block);
+            removed.add(block);
+        }
+        function.blocks().removeIf(removed::contains);
+        return !removed.isEmpty();
+    }
+
+    /**
+     * Appends blocks to their only predecessor if the predecessor
+     * always jumps to them. Phis of the appended blocks have
+     * a single incoming value, which replaces them.
+     */
+    private static boolean mergeBlocks(IrFunction function) {
+        Map<String, BasicBlock> byName = function.blockMap();
+        Map<BasicBlock, List<BasicBlock>> predecessors = function.predecessors();
+        Set<BasicBlock> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        IdentityHashMap<Value, Value> replacements = new IdentityHashMap<>();
+        for (BasicBlock block : function.blocks()) {
+            if (removed.contains(block))
+                continue;
+            while (block.terminator() instanceof BranchInstruction branch) {
+                BasicBlock successor = byName.get(branch.target());
+                if (successor == block || successor == function.entry()
+                        || predecessors.get(successor).size() != 1)
+                    break;
+                List<Instruction> instructions = block.instructions();
+                instructions.remove(instructions.size() - 1);
+                for (Instruction instruction : successor.instructions()) {
+                    if (instruction instanceof PhiInstruction phi)
+                        replacements.put(phi.result(), phi.values().get(0));
+                    else
+                        instructions.add(instruction);
+                }
+                for (String name : successor.successors()) {
+                    BasicBlock next = byName.get(name);
+                    for (Instruction instruction : next.instructions()) {
+                        if (!(instruction instanceof PhiInstruction phi))
+                            break;
+                        phi.replaceIncomingBlock(successor.name(), block.name());
+                    }
+                    List<BasicBlock> nextPredecessors = predecessors.get(next);
+                    nextPredecessors.remove(successor);
+                    if (!nextPredecessors.contains(block))
+                        nextPredecessors.add(block);
+                }
+                removed.add(successor);
+            }
+        }
+        if (removed.isEmpty())
+            return false;
+        function.blocks().removeIf(removed::contains);
+
+        /* a replaced phi may have received the result of another replaced phi */
+        for (Map.Entry<Value, Value> entry : replacements.entrySet()) {
+            Value value = entry.getValue();
+            while (replacements.containsKey(value))
+                value = replacements.get(value);
+            entry.setValue(value);
+        }
+        if (!replacements.isEmpty()) {
+            for (BasicBlock block : function.blocks()) {
+                for (Instruction instruction : block.instructions())
+                    instruction.replaceOperands(replacements);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+package org.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dominator tree of the blocks reachable from the entry block,
+ * computed by the iterative algorithm of Cooper, Harvey and Kennedy.
+ * The tree is not updated when the function is changed.
+ */
+public class DominatorTree {
+    /* reachable blocks in reverse postorder, the entry block is the first */
+    private final List<BasicBlock> order;
+    private final IdentityHashMap<BasicBlock, Integer> position = new IdentityHashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> predecessors;
+    /* immediate dominators by positions in the order, the entry dominates itself */
+    private final int[] idom;
+    private final IdentityHashMap<BasicBlock, List<BasicBlock>> children = new IdentityHashMap<>();
+
+    public DominatorTree(IrFunction function) {
+        order = reversePostorder(function);
+        for (int i = 0; i < order.size(); ++i)
+            position.put(order.get(i), i);
+        predecessors = function.predecessors();
+
+        idom = new int[order.size()];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.size(); ++i) {
+                int newIdom = -1;
+                for (BasicBlock predecessor : predecessors.get(order.get(i))) {
+                    Integer p = position.get(predecessor);
+                    if (p == null || idom[p] == -1)
+                        continue;
+                    newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+                }
+                if (idom[i] != newIdom) {
+                    idom[i] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock block : order)
+            children.put(block, new ArrayList<>());
+        for (int i = 1; i < order.size(); ++i)
+            children.get(order.get(idom[i])).add(order.get(i));
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (a > b)
+                a = idom[a];
+            while (b > a)
+                b = idom[b];
+        }
+        return a;
+    }
+
+    private static List<BasicBlock> reversePostorder(IrFunction function) {
+        Map<String, BasicBlock> byName = function.blockMap();
+        ArrayList<BasicBlock> postorder = new ArrayList<>(function.blocks().size());
+        Set<BasicBlock> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        /* every entry holds a block and the index of its next successor to visit */
+        ArrayDeque<Object[]> stack = new ArrayDeque<>();
+        visited.add(function.entry());
+        stack.push(new Object[]{function.entry(), 0});
+        while (!stack.isEmpty()) {
+            Object[] top = stack.peek();
+            BasicBlock block = (BasicBlock) top[0];
+            List<String> successors = block.successors();
+            int next = (Integer) top[1];
+            if (next < successors.size()) {
+                top[1] = next + 1;
+                BasicBlock successor = byName.get(successors.get(next));
+                if (visited.add(successor))
+                    stack.push(new Object[]{successor, 0});
+            } else {
+                stack.pop();
+                postorder.add(block);
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    /**
+     * Returns the reachable blocks in reverse postorder, i.e. every block
+     * precedes its successors except along back edges of loops.
+     */
+    public List<BasicBlock> reversePostorder() {
+        return order;
+    }
+
+    public boolean isReachable(BasicBlock block) {
+        return position.containsKey(block);
+    }
+
+    /**
+     * Returns the immediate dominator, null for the entry block.
+     */
+    public BasicBlock immediateDominator(BasicBlock block) {
+        int i = position.get(block);
+        return i == 0 ? null : order.get(idom[i]);
+    }
+
+    /**
+     * Returns blocks immediately dominated by the block.
+     */
+    public List<BasicBlock> children(BasicBlock block) {
+        return children.get(block);
+    }
+
+    /**
+     * Returns true if every path from the entry to b goes through a.
+     * Every block dominates itself.
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        int target = position.get(a);
+        int i = position.get(b);
+        while (i > target)
+            i = idom[i];
+        return i == target;
+    }
+
+    /**
+     * Returns the predecessors of every block of the function,
+     * including unreachable ones.
+     */
+    public Map<BasicBlock, List<BasicBlock>> predecessors() {
+        return predecessors;
+    }
+
+    /**
+     * Returns dominance frontiers of the reachable blocks, i.e. the blocks
+     * where dominance of a block ends and values from different paths meet.
+     */
+    public Map<BasicBlock, Set<BasicBlock>> dominanceFrontiers() {
+        IdentityHashMap<BasicBlock, Set<BasicBlock>> frontiers = new IdentityHashMap<>();
+        for (BasicBlock block : order)
+            frontiers.put(block, new LinkedHashSet<>());
+        for (int i = 0; i < order.size(); ++i) {
+            List<BasicBlock> blockPredecessors = predecessors.get(order.get(i));
+            if (blockPredecessors.size() < 2)
+                continue;
+            for (BasicBlock predecessor : blockPredecessors) {
+                Integer runner = position.get(predecessor);
+                if (runner == null)
+                    continue;
+                while (runner != idom[i]) {
+                    frontiers.get(order.get(runner)).add(order.get(i));
+                    runner = idom[runner];
+                }
+            }
+        }
+        return frontiers;
+    }
+}
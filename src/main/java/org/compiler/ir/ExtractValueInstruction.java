@@ -0,0 +1,42 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a member of a structure value.
+ */
+public class ExtractValueInstruction extends Instruction {
+    private final Register result;
+    private Value aggregate;
+    private final int index;
+
+    public ExtractValueInstruction(Register result, Value aggregate, int index) {
+        this.result = result;
+        this.aggregate = aggregate;
+        this.index = index;
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public Value aggregate() {
+        return aggregate;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return List.of(aggregate);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        aggregate = replacement(aggregate, replacements);
+    }
+}
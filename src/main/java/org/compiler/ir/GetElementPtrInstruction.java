@@ -0,0 +1,54 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes an address of an element. Source type is the type
+ * the first index steps over.
+ */
+public class GetElementPtrInstruction extends Instruction {
+    private final Register result;
+    private final String sourceType;
+    private Value pointer;
+    private final ArrayList<Value> indices;
+
+    public GetElementPtrInstruction(Register result, String sourceType, Value pointer, List<Value> indices) {
+        this.result = result;
+        this.sourceType = sourceType;
+        this.pointer = pointer;
+        this.indices = new ArrayList<>(indices);
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public String sourceType() {
+        return sourceType;
+    }
+
+    public Value pointer() {
+        return pointer;
+    }
+
+    public List<Value> indices() {
+        return indices;
+    }
+
+    @Override
+    public List<Value> operands() {
+        ArrayList<Value> operands = new ArrayList<>(indices.size() + 1);
+        operands.add(pointer);
+        operands.addAll(indices);
+        return operands;
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        pointer = replacement(pointer, replacements);
+        indices.replaceAll(index -> replacement(index, replacements));
+    }
+}
@@ -0,0 +1,23 @@
+package org.compiler.ir;
+
+/**
+ * Represents an address of a global variable, e.g. @formatInt.
+ * The type of the value is a pointer to the type of the variable.
+ */
+public class GlobalValue extends Value {
+    private final String name;
+
+    /**
+     * @param name name of the global variable including '@'
+     * @param type LLVM type of the address
+     */
+    public GlobalValue(String name, String type) {
+        super(type);
+        this.name = name;
+    }
+
+    @Override
+    public String ref() {
+        return name;
+    }
+}
@@ -0,0 +1,345 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Replaces calls of small functions of the program by copies of their bodies.
+ * A function can only call functions defined before it, so the functions
+ * are inlined bottom-up: once a function has its calls inlined, its body
+ * is published for the functions calling it. Functions may be transformed
+ * by several threads, a caller waits until the body of its callee is published.
+ * The instance belongs to a single program.
+ */
+public class InlinePass implements Pass {
+    /* maximal cost of an inlined function, see cost() */
+    private final int threshold;
+    /* bodies of the functions of the program, completed by null if a function cannot be inlined */
+    private final ConcurrentHashMap<String, CompletableFuture<IrFunction>> bodies = new ConcurrentHashMap<>();
+    /* inlined calls of every function, see report() */
+    private final ConcurrentHashMap<String, List<String>> reports = new ConcurrentHashMap<>();
+
+    /**
+     * @param threshold maximal cost of an inlined function
+     */
+    public InlinePass(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public String name() {
+        return "inline";
+    }
+
+    /**
+     * Announces a function defined in the program, calls of the function
+     * wait until publish() is called for it.
+     */
+    public void declare(String name) {
+        bodies.put(name, new CompletableFuture<>());
+    }
+
+    /**
+     * Makes the body of a function available to its callers.
+     * Only the first body published for a function is used.
+     * @param body copy of the function which is not changed any more, null if it must not be inlined
+     */
+    public void publish(String name, IrFunction body) {
+        CompletableFuture<IrFunction> future = bodies.get(name);
+        if (future != null)
+            future.complete(body);
+    }
+
+    /**
+     * Returns the published body of a function, null if it has not been
+     * published yet or if the function cannot be inlined.
+     */
+    public IrFunction published(String name) {
+        CompletableFuture<IrFunction> future = bodies.get(name);
+        return future == null ? null : future.getNow(null);
+    }
+
+    /**
+     * Returns the functions inlined into a function, one line per call.
+     */
+    public List<String> report(String name) {
+        return reports.getOrDefault(name, List.of());
+    }
+
+    /**
+     * Sets the report of a function which was not transformed by this pass, e.g. taken from a cache.
+     */
+    public void setReport(String name, List<String> report) {
+        if (!report.isEmpty())
+            reports.put(name, report);
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        boolean changed = inlineCalls(function);
+        publish(function.name(), isInlinable(function) ? copy(function) : null);
+        return changed;
+    }
+
+    /**
+     * Returns the size of the code the function adds to a caller,
+     * i.e. the number of instructions except allocations, phis and jumps.
+     */
+    private static int cost(IrFunction function) {
+        int cost = 0;
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (!(instruction instanceof AllocaInstruction || instruction instanceof PhiInstruction
+                        || instruction instanceof BranchInstruction))
+                    ++cost;
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * A function is inlined if it is small, it does not call itself and does not allocate
+     * arrays on the stack, which would not be freed until the caller returns.
+     */
+    private boolean isInlinable(IrFunction function) {
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction instanceof AllocaInstruction alloca && alloca.count() != null)
+                    return false;
+                if (instruction instanceof CallInstruction call && call.callee().equals(function.name()))
+                    return false;
+            }
+        }
+        return cost(function) <= threshold;
+    }
+
+    private IrFunction awaitBody(String name) {
+        CompletableFuture<IrFunction> future = bodies.get(name);
+        if (future == null)
+            return null;
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Inlines the calls of the function which were generated by the visitors,
+     * calls in the inlined bodies are not inlined again.
+     */
+    private boolean inlineCalls(IrFunction function) {
+        List<BasicBlock> blocks = function.blocks();
+        Map<String, BasicBlock> byName = function.blockMap();
+        HashMap<Value, Value> replacements = new HashMap<>();
+        ArrayList<String> report = new ArrayList<>();
+        for (int i = 0; i < blocks.size(); ++i) {
+            BasicBlock block = blocks.get(i);
+            List<Instruction> instructions = block.instructions();
+            for (int j = 0; j < instructions.size(); ++j) {
+                if (!(instructions.get(j) instanceof CallInstruction call) || call.callee().equals(function.name()))
+                    continue;
+                IrFunction callee = awaitBody(call.callee());
+                if (callee == null)
+                    continue;
+                List<BasicBlock> inlined = inline(function, block, j, call, callee, byName, replacements);
+                blocks.addAll(i + 1, inlined);
+                report.add(function.name() + ": inlined " + callee.name() + " (cost " + cost(callee) + ")");
+                /* continue with the rest of the block, which is the last inlined block */
+                i += inlined.size() - 1;
+                break;
+            }
+        }
+        if (report.isEmpty())
+            return false;
+        reports.put(function.name(), report);
+
+        /* values may be replaced by values which are replaced as well */
+        for (Map.Entry<Value, Value> entry : replacements.entrySet()) {
+            Value value = entry.getValue();
+            while (replacements.containsKey(value))
+                value = replacements.get(value);
+            entry.setValue(value);
+        }
+        if (!replacements.isEmpty()) {
+            for (BasicBlock block : blocks) {
+                for (Instruction instruction : block.instructions())
+                    instruction.replaceOperands(replacements);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a call by a copy of the callee. The block containing the call
+     * is split, the part following the call becomes the continuation block
+     * the returns of the callee jump to. Allocations of local variables
+     * of the callee are moved to the entry of the caller.
+     * @param index position of the call in the block
+     * @param byName blocks of the caller by their labels, the new blocks are added
+     * @param replacements the result of the call is mapped to the returned value
+     *                     if the callee returns only once
+     * @return the copied blocks followed by the continuation block
+     */
+    private static List<BasicBlock> inline(IrFunction function, BasicBlock block, int index, CallInstruction call,
+                                           IrFunction callee, Map<String, BasicBlock> byName,
+                                           Map<Value, Value> replacements) {
+        /* parameters are replaced by the arguments, the callee gets new registers and labels */
+        HashMap<Value, Value> values = new HashMap<>();
+        for (int i = 0; i < callee.arguments().size(); ++i)
+            values.put(callee.arguments().get(i), call.arguments().get(i));
+        HashMap<String, String> labels = new HashMap<>();
+        for (BasicBlock calleeBlock : callee.blocks()) {
+            labels.put(calleeBlock.name(), function.newLabel());
+            for (Instruction instruction : calleeBlock.instructions()) {
+                if (instruction.result() != null)
+                    values.put(instruction.result(), function.newRegister(instruction.result().type()));
+            }
+        }
+
+        BasicBlock continuation = new BasicBlock(function.newLabel());
+        List<Instruction> instructions = block.instructions();
+        continuation.instructions().addAll(instructions.subList(index + 1, instructions.size()));
+        instructions.subList(index, instructions.size()).clear();
+        instructions.add(new BranchInstruction(labels.get(callee.entry().name())));
+        for (String successor : continuation.successors()) {
+            for (Instruction instruction : byName.get(successor).instructions()) {
+                if (!(instruction instanceof PhiInstruction phi))
+                    break;
+                phi.replaceIncomingBlock(block.name(), continuation.name());
+            }
+        }
+
+        ArrayList<BasicBlock> result = new ArrayList<>(callee.blocks().size() + 1);
+        ArrayList<Value> returned = new ArrayList<>();
+        ArrayList<String> returning = new ArrayList<>();
+        ArrayList<Instruction> allocas = new ArrayList<>();
+        for (BasicBlock calleeBlock : callee.blocks()) {
+            BasicBlock copy = new BasicBlock(labels.get(calleeBlock.name()));
+            for (Instruction instruction : calleeBlock.instructions()) {
+                Instruction copied = copy(instruction, values, labels);
+                if (copied instanceof ReturnInstruction ret) {
+                    if (ret.value() != null) {
+                        returned.add(ret.value());
+                        returning.add(copy.name());
+                    }
+                    copied = new BranchInstruction(continuation.name());
+                } else if (copied instanceof AllocaInstruction) {
+                    allocas.add(copied);
+                    continue;
+                }
+                copy.append(copied);
+            }
+            result.add(copy);
+        }
+        function.entry().instructions().addAll(0, allocas);
+
+        if (call.result() != null) {
+            if (returned.size() == 1) {
+                replacements.put(call.result(), returned.get(0));
+            } else if (returned.isEmpty()) {
+                replacements.put(call.result(), new Constant(call.result().type(), 0));
+            } else {
+                PhiInstruction phi = new PhiInstruction(call.result());
+                for (int i = 0; i < returned.size(); ++i)
+                    phi.addIncoming(returned.get(i), returning.get(i));
+                continuation.instructions().add(0, phi);
+            }
+        }
+        result.add(continuation);
+        for (BasicBlock added : result)
+            byName.put(added.name(), added);
+        return result;
+    }
+
+    /**
+     * Returns a copy of the function which is not affected by later changes of the function.
+     */
+    private static IrFunction copy(IrFunction function) {
+        IrFunction copy = new IrFunction(function.returnType(), function.name(), function.arguments(), null, null);
+        Map<Value, Value> values = Map.of();
+        Map<String, String> labels = Map.of();
+        for (BasicBlock block : function.blocks()) {
+            BasicBlock copiedBlock = new BasicBlock(block.name());
+            for (Instruction instruction : block.instructions())
+                copiedBlock.append(copy(instruction, values, labels));
+            copy.blocks().add(copiedBlock);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a copy of an instruction whose values and labels are replaced by the mapped ones.
+     */
+    private static Instruction copy(Instruction instruction, Map<Value, Value> values, Map<String, String> labels) {
+        if (instruction instanceof BinaryInstruction binary) {
+            return new BinaryInstruction(binary.operator(), result(binary, values),
+                    value(binary.lhs(), values), value(binary.rhs(), values));
+        } else if (instruction instanceof CompareInstruction compare) {
+            return new CompareInstruction(compare.predicate(), result(compare, values),
+                    value(compare.lhs(), values), value(compare.rhs(), values));
+        } else if (instruction instanceof CastInstruction cast) {
+            return new CastInstruction(cast.operator(), result(cast, values), value(cast.value(), values));
+        } else if (instruction instanceof AllocaInstruction alloca) {
+            return new AllocaInstruction(result(alloca, values), alloca.allocatedType(),
+                    value(alloca.count(), values));
+        } else if (instruction instanceof LoadInstruction load) {
+            return new LoadInstruction(result(load, values), value(load.pointer(), values));
+        } else if (instruction instanceof StoreInstruction store) {
+            return new StoreInstruction(value(store.value(), values), value(store.pointer(), values));
+        } else if (instruction instanceof GetElementPtrInstruction gep) {
+            ArrayList<Value> indices = new ArrayList<>(gep.indices().size());
+            for (Value index : gep.indices())
+                indices.add(value(index, values));
+            return new GetElementPtrInstruction(result(gep, values), gep.sourceType(),
+                    value(gep.pointer(), values), indices);
+        } else if (instruction instanceof ExtractValueInstruction extract) {
+            return new ExtractValueInstruction(result(extract, values), value(extract.aggregate(), values),
+                    extract.index());
+        } else if (instruction instanceof InsertValueInstruction insert) {
+            return new InsertValueInstruction(result(insert, values), value(insert.aggregate(), values),
+                    value(insert.value(), values), insert.index());
+        } else if (instruction instanceof CallInstruction call) {
+            ArrayList<Value> arguments = new ArrayList<>(call.arguments().size());
+            for (Value argument : call.arguments())
+                arguments.add(value(argument, values));
+            return new CallInstruction(call.result() == null ? null : result(call, values), call.returnType(),
+                    call.signature(), call.callee(), arguments);
+        } else if (instruction instanceof PhiInstruction phi) {
+            PhiInstruction copy = new PhiInstruction(result(phi, values));
+            for (int i = 0; i < phi.values().size(); ++i)
+                copy.addIncoming(value(phi.values().get(i), values), label(phi.blocks().get(i), labels));
+            return copy;
+        } else if (instruction instanceof BranchInstruction branch) {
+            return new BranchInstruction(label(branch.target(), labels));
+        } else if (instruction instanceof ConditionalBranchInstruction branch) {
+            return new ConditionalBranchInstruction(value(branch.condition(), values),
+                    label(branch.trueTarget(), labels), label(branch.falseTarget(), labels));
+        } else if (instruction instanceof ReturnInstruction ret) {
+            return new ReturnInstruction(value(ret.value(), values));
+        }
+        throw new IllegalArgumentException("unknown instruction " + instruction);
+    }
+
+    private static Value value(Value value, Map<Value, Value> values) {
+        if (value == null)
+            return null;
+        return values.getOrDefault(value, value);
+    }
+
+    private static Register result(Instruction instruction, Map<Value, Value> values) {
+        return (Register) value(instruction.result(), values);
+    }
+
+    private static String label(String label, Map<String, String> labels) {
+        return labels.getOrDefault(label, label);
+    }
+}
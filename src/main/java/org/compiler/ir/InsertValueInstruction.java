@@ -0,0 +1,49 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Returns a copy of a structure value with one member replaced.
+ */
+public class InsertValueInstruction extends Instruction {
+    private final Register result;
+    private Value aggregate;
+    private Value value;
+    private final int index;
+
+    public InsertValueInstruction(Register result, Value aggregate, Value value, int index) {
+        this.result = result;
+        this.aggregate = aggregate;
+        this.value = value;
+        this.index = index;
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public Value aggregate() {
+        return aggregate;
+    }
+
+    public Value value() {
+        return value;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return List.of(aggregate, value);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        aggregate = replacement(aggregate, replacements);
+        value = replacement(value, replacements);
+    }
+}
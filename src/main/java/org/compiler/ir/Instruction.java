@@ -0,0 +1,59 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class of all instructions. Instructions are created
+ * by IrBuilder and turned to text by IrPrinter.
+ */
+public abstract class Instruction {
+    /**
+     * Returns register defined by this instruction
+     * or null if the instruction does not produce a value.
+     */
+    public Register result() {
+        return null;
+    }
+
+    /**
+     * Returns true if the instruction ends a basic block.
+     */
+    public boolean isTerminator() {
+        return false;
+    }
+
+    /**
+     * Returns values read by this instruction.
+     */
+    public List<Value> operands() {
+        return List.of();
+    }
+
+    /**
+     * Replaces every operand which is a key of the map by the mapped value.
+     */
+    public void replaceOperands(Map<Value, Value> replacements) {
+
+    }
+
+    /**
+     * Returns labels of the basic blocks this instruction may jump to.
+     */
+    public List<String> successors() {
+        return List.of();
+    }
+
+    /**
+     * Makes the instruction jump to label 'to' instead of label 'from'.
+     */
+    public void replaceSuccessor(String from, String to) {
+
+    }
+
+    protected static Value replacement(Value value, Map<Value, Value> replacements) {
+        if (value == null)
+            return null;
+        return replacements.getOrDefault(value, value);
+    }
+}
@@ -0,0 +1,154 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Creates instructions and appends them to a piece of code.
+ * Registers holding results are named by the supplied generator
+ * and their types are derived from the operands.
+ */
+public class IrBuilder {
+    private final Supplier<String> registerNames;
+    private final Code code = new Code();
+
+    public IrBuilder(Supplier<String> registerNames) {
+        this.registerNames = registerNames;
+    }
+
+    /**
+     * Returns the code built so far.
+     */
+    public Code code() {
+        return code;
+    }
+
+    public IrBuilder append(Code other) {
+        code.append(other);
+        return this;
+    }
+
+    private Register newRegister(String type) {
+        return new Register(registerNames.get(), type);
+    }
+
+    public void label(String name) {
+        code.append(new Label(name));
+    }
+
+    public Register binary(BinaryInstruction.Operator operator, Value lhs, Value rhs) {
+        Register result = newRegister(lhs.type());
+        code.append(new BinaryInstruction(operator, result, lhs, rhs));
+        return result;
+    }
+
+    public Register compare(CompareInstruction.Predicate predicate, Value lhs, Value rhs) {
+        Register result = newRegister("i1");
+        code.append(new CompareInstruction(predicate, result, lhs, rhs));
+        return result;
+    }
+
+    public Register cast(CastInstruction.Operator operator, Value value, String destinationType) {
+        Register result = newRegister(destinationType);
+        code.append(new CastInstruction(operator, result, value));
+        return result;
+    }
+
+    /**
+     * @param count number of elements, null allocates a single one
+     */
+    public Register alloca(String type, Value count) {
+        Register result = newRegister(Types.pointerTo(type));
+        code.append(new AllocaInstruction(result, type, count));
+        return result;
+    }
+
+    public Register load(Value pointer) {
+        Register result = newRegister(Types.pointee(pointer.type()));
+        code.append(new LoadInstruction(result, pointer));
+        return result;
+    }
+
+    public void store(Value value, Value pointer) {
+        code.append(new StoreInstruction(value, pointer));
+    }
+
+    /**
+     * The first index steps over elements of the pointer type,
+     * every following index steps into an array.
+     */
+    public Register getElementPtr(Value pointer, Value... indices) {
+        String sourceType = Types.pointee(pointer.type());
+        String elementType = sourceType;
+        for (int i = 1; i < indices.length; ++i)
+            elementType = Types.arrayElement(elementType);
+        Register result = newRegister(Types.pointerTo(elementType));
+        code.append(new GetElementPtrInstruction(result, sourceType, pointer, List.of(indices)));
+        return result;
+    }
+
+    public Register extractValue(Value aggregate, int index) {
+        Register result = newRegister(Types.structElement(aggregate.type(), index));
+        code.append(new ExtractValueInstruction(result, aggregate, index));
+        return result;
+    }
+
+    public Register insertValue(Value aggregate, Value value, int index) {
+        Register result = newRegister(aggregate.type());
+        code.append(new InsertValueInstruction(result, aggregate, value, index));
+        return result;
+    }
+
+    /**
+     * Builds a structure value of the given type from its members.
+     */
+    public Value aggregate(String type, List<Value> members) {
+        Value result = new Undef(type);
+        for (int i = 0; i < members.size(); ++i)
+            result = insertValue(result, members.get(i), i);
+        return result;
+    }
+
+    /**
+     * Call a function. Returns null if the function returns void.
+     */
+    public Register call(String returnType, String callee, List<Value> arguments) {
+        return callWithSignature(returnType, null, callee, arguments);
+    }
+
+    /**
+     * Call a variadic function, signature is its parameter list, e.g. (i8*, ...).
+     */
+    public Register callWithSignature(String returnType, String signature,
+                                      String callee, List<Value> arguments) {
+        Register result = returnType.equals("void") ? null : newRegister(returnType);
+        code.append(new CallInstruction(result, returnType, signature, callee, arguments));
+        return result;
+    }
+
+    /**
+     * @param blocks labels of the predecessors, the i-th value comes from the i-th one
+     */
+    public Register phi(List<Value> values, List<String> blocks) {
+        PhiInstruction phi = new PhiInstruction(newRegister(values.get(0).type()));
+        for (int i = 0; i < values.size(); ++i)
+            phi.addIncoming(values.get(i), blocks.get(i));
+        code.append(phi);
+        return phi.result();
+    }
+
+    public void branch(String target) {
+        code.append(new BranchInstruction(target));
+    }
+
+    public void conditionalBranch(Value condition, String trueTarget, String falseTarget) {
+        code.append(new ConditionalBranchInstruction(condition, trueTarget, falseTarget));
+    }
+
+    /**
+     * @param value returned value, null for void functions
+     */
+    public void ret(Value value) {
+        code.append(new ReturnInstruction(value));
+    }
+}
@@ -0,0 +1,181 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * In-memory representation of a function definition: its signature
+ * and a list of basic blocks, the first of which is the entry block.
+ * Passes transform the blocks in place before the function is printed.
+ */
+public class IrFunction {
+    private final String returnType;
+    private final String name;
+    private final List<Register> arguments;
+    private final ArrayList<BasicBlock> blocks = new ArrayList<>();
+    private final Supplier<String> registerNames;
+    private final Supplier<String> labelNames;
+
+    /**
+     * @param returnType LLVM return type
+     * @param name name of the function without '@'
+     * @param arguments registers holding the passed arguments
+     * @param registerNames generates names of registers created by passes
+     * @param labelNames generates names of blocks created by passes
+     */
+    public IrFunction(String returnType, String name, List<Register> arguments,
+                      Supplier<String> registerNames, Supplier<String> labelNames) {
+        this.returnType = returnType;
+        this.name = name;
+        this.arguments = arguments;
+        this.registerNames = registerNames;
+        this.labelNames = labelNames;
+    }
+
+    /**
+     * Splits linear code generated by the visitors to basic blocks.
+     * A new block starts at every label and after every terminator. Code
+     * following a terminator without a label gets a generated label and
+     * a block falling through to a label gets an explicit branch.
+     * @param code code starting with the label of the entry block
+     */
+    public void appendCode(Code code) {
+        BasicBlock current = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        for (Instruction instruction : code) {
+            if (instruction instanceof Label label) {
+                if (current != null && current.terminator() == null)
+                    current.append(new BranchInstruction(label.name()));
+                current = new BasicBlock(label.name());
+                blocks.add(current);
+                continue;
+            }
+            if (current == null || current.terminator() != null) {
+                current = new BasicBlock(labelNames.get());
+                blocks.add(current);
+            }
+            current.append(instruction);
+        }
+    }
+
+    public String returnType() {
+        return returnType;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public List<Register> arguments() {
+        return arguments;
+    }
+
+    /**
+     * Returns the mutable list of basic blocks in printing order.
+     */
+    public List<BasicBlock> blocks() {
+        return blocks;
+    }
+
+    public BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    public Register newRegister(String type) {
+        return new Register(registerNames.get(), type);
+    }
+
+    public String newLabel() {
+        return labelNames.get();
+    }
+
+    /**
+     * Returns a new builder whose registers belong to this function.
+     */
+    public IrBuilder newBuilder() {
+        return new IrBuilder(registerNames);
+    }
+
+    /**
+     * Maps block labels to blocks. The map is not updated
+     * when the blocks are changed.
+     */
+    public Map<String, BasicBlock> blockMap() {
+        HashMap<String, BasicBlock> map = new HashMap<>(blocks.size() * 2);
+        for (BasicBlock block : blocks)
+            map.put(block.name(), block);
+        return map;
+    }
+
+    /**
+     * Moves allocations of single elements to the beginning of the entry block,
+     * so that a variable declared in a loop is not allocated again by every
+     * iteration. Arrays stay where they are declared.
+     * @return true if any allocation was moved
+     */
+    public boolean hoistAllocas() {
+        ArrayList<Instruction> hoisted = new ArrayList<>();
+        for (int i = 1; i < blocks.size(); ++i) {
+            blocks.get(i).instructions().removeIf(instruction -> {
+                if (instruction instanceof AllocaInstruction alloca && alloca.count() == null) {
+                    hoisted.add(alloca);
+                    return true;
+                }
+                return false;
+            });
+        }
+        entry().instructions().addAll(0, hoisted);
+        return !hoisted.isEmpty();
+    }
+
+    /**
+     * Removes blocks which cannot be reached from the entry block,
+     * phi instructions forget values coming from the removed blocks.
+     * @return true if any block was removed
+     */
+    public boolean removeUnreachableBlocks() {
+        DominatorTree tree = new DominatorTree(this);
+        if (tree.reversePostorder().size() == blocks.size())
+            return false;
+        HashSet<String> removed = new HashSet<>();
+        for (BasicBlock block : blocks) {
+            if (!tree.isReachable(block))
+                removed.add(block.name());
+        }
+        blocks.removeIf(block -> removed.contains(block.name()));
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.instructions()) {
+                if (!(instruction instanceof PhiInstruction phi))
+                    break;
+                for (String predecessor : List.copyOf(phi.blocks())) {
+                    if (removed.contains(predecessor))
+                        phi.removeIncoming(predecessor);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps every block to the list of blocks which may jump to it.
+     * A block jumping to another one twice is listed only once.
+     */
+    public Map<BasicBlock, List<BasicBlock>> predecessors() {
+        Map<String, BasicBlock> byName = blockMap();
+        IdentityHashMap<BasicBlock, List<BasicBlock>> predecessors = new IdentityHashMap<>();
+        for (BasicBlock block : blocks)
+            predecessors.put(block, new ArrayList<>(2));
+        for (BasicBlock block : blocks) {
+            for (String successor : block.successors()) {
+                List<BasicBlock> list = predecessors.get(byName.get(successor));
+                if (list.isEmpty() || list.get(list.size() - 1) != block)
+                    list.add(block);
+            }
+        }
+        return predecessors;
+    }
+}
@@ -0,0 +1,129 @@
+package org.compiler.ir;
+
+import java.util.List;
+
+/**
+ * Turns instructions to LLVM assembly.
+ */
+public class IrPrinter {
+    public IrPrinter() {
+
+    }
+
+    /**
+     * Prints a sequence of instructions, one instruction per line.
+     * Labels are not indented.
+     */
+    public String print(Code code) {
+        StringBuilder sb = new StringBuilder();
+        for (Instruction instruction : code) {
+            if (!(instruction instanceof Label))
+                sb.append('\t');
+            print(instruction, sb);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints basic blocks of a function, every block starts with its label.
+     */
+    public String print(IrFunction function) {
+        StringBuilder sb = new StringBuilder();
+        for (BasicBlock block : function.blocks()) {
+            sb.append(block.name()).append(":\n");
+            for (Instruction instruction : block.instructions()) {
+                sb.append('\t');
+                print(instruction, sb);
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints the parameter list of a function definition.
+     */
+    public String printArguments(IrFunction function) {
+        StringBuilder sb = new StringBuilder();
+        printValues(function.arguments(), sb);
+        return sb.toString();
+    }
+
+    public String print(Instruction instruction) {
+        StringBuilder sb = new StringBuilder();
+        print(instruction, sb);
+        return sb.toString();
+    }
+
+    private void printValues(List<? extends Value> values, StringBuilder sb) {
+        for (int i = 0; i < values.size(); ++i) {
+            if (i != 0)
+                sb.append(", ");
+            sb.append(values.get(i).type()).append(' ').append(values.get(i).ref());
+        }
+    }
+
+    private void print(Instruction instruction, StringBuilder sb) {
+        if (instruction.result() != null)
+            sb.append(instruction.result().ref()).append(" = ");
+
+        if (instruction instanceof Label label) {
+            sb.append(label.name()).append(':');
+        } else if (instruction instanceof BinaryInstruction binary) {
+            sb.append(binary.operator().opcode()).append(' ').append(binary.lhs().type())
+                    .append(' ').append(binary.lhs().ref())
+                    .append(", ").append(binary.rhs().ref());
+        } else if (instruction instanceof CompareInstruction compare) {
+            sb.append("icmp ").append(compare.predicate().predicateName()).append(' ')
+                    .append(compare.lhs().type()).append(' ').append(compare.lhs().ref())
+                    .append(", ").append(compare.rhs().ref());
+        } else if (instruction instanceof CastInstruction cast) {
+            sb.append(cast.operator().opcode()).append(' ').append(cast.value())
+                    .append(" to ").append(cast.result().type());
+        } else if (instruction instanceof AllocaInstruction alloca) {
+            sb.append("alloca ").append(alloca.allocatedType());
+            if (alloca.count() != null)
+                sb.append(", ").append(alloca.count());
+        } else if (instruction instanceof LoadInstruction load) {
+            sb.append("load ").append(load.result().type()).append(", ").append(load.pointer());
+        } else if (instruction instanceof StoreInstruction store) {
+            sb.append("store ").append(store.value()).append(", ").append(store.pointer());
+        } else if (instruction instanceof GetElementPtrInstruction gep) {
+            sb.append("getelementptr ").append(gep.sourceType()).append(", ").append(gep.pointer());
+            for (Value index : gep.indices())
+                sb.append(", ").append(index);
+        } else if (instruction instanceof ExtractValueInstruction extract) {
+            sb.append("extractvalue ").append(extract.aggregate()).append(", ").append(extract.index());
+        } else if (instruction instanceof InsertValueInstruction insert) {
+            sb.append("insertvalue ").append(insert.aggregate()).append(", ").append(insert.value())
+                    .append(", ").append(insert.index());
+        } else if (instruction instanceof CallInstruction call) {
+            sb.append(call.tail().prefix()).append("call ").append(call.returnType()).append(' ');
+            if (call.signature() != null)
+                sb.append(call.signature()).append(' ');
+            sb.append('@').append(call.callee()).append('(');
+            printValues(call.arguments(), sb);
+            sb.append(')');
+        } else if (instruction instanceof PhiInstruction phi) {
+            sb.append("phi ").append(phi.result().type());
+            for (int i = 0; i < phi.values().size(); ++i) {
+                sb.append(i == 0 ? " [ " : ", [ ").append(phi.values().get(i).ref())
+                        .append(", %").append(phi.blocks().get(i)).append(" ]");
+            }
+        } else if (instruction instanceof BranchInstruction branch) {
+            sb.append("br label %").append(branch.target());
+        } else if (instruction instanceof ConditionalBranchInstruction branch) {
+            sb.append("br ").append(branch.condition())
+                    .append(", label %").append(branch.trueTarget())
+                    .append(", label %").append(branch.falseTarget());
+        } else if (instruction instanceof ReturnInstruction ret) {
+            if (ret.value() == null)
+                sb.append("ret void");
+            else
+                sb.append("ret ").append(ret.value());
+        } else {
+            throw new IllegalArgumentException("unknown instruction " + instruction);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.compiler.ir;
+
+/**
+ * Marks the beginning of a basic block in a sequence of instructions.
+ */
+public class Label extends Instruction {
+    private final String name;
+
+    public Label(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+}
@@ -0,0 +1,33 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+public class LoadInstruction extends Instruction {
+    private final Register result;
+    private Value pointer;
+
+    public LoadInstruction(Register result, Value pointer) {
+        this.result = result;
+        this.pointer = pointer;
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    public Value pointer() {
+        return pointer;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return List.of(pointer);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        pointer = replacement(pointer, replacements);
+    }
+}
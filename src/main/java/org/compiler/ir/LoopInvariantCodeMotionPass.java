@@ -0,0 +1,307 @@
+package org.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves computations whose result is the same in every iteration of a loop
+ * to the preheader of the loop, i.e. to the block which enters the loop.
+ * Loops are found as natural loops of back edges in the dominator tree,
+ * inner loops are processed first, so that an invariant of nested loops
+ * moves out of all of them.
+ * Arithmetic, comparisons, conversions and address computations are moved
+ * whenever their operands are invariant, since they have no side effects
+ * and cannot trap. A load is moved only if nothing in the loop may write
+ * the memory it reads, i.e. the loop calls no function and stores only
+ * to different objects, and if the load is executed whenever the loop is
+ * entered or reads a local variable, which can be read safely at any time.
+ */
+public class LoopInvariantCodeMotionPass implements Pass {
+    public LoopInvariantCodeMotionPass() {
+
+    }
+
+    @Override
+    public String name() {
+        return "licm";
+    }
+
+    /**
+     * Blocks of a natural loop, the header is the only block entered from outside.
+     */
+    private record Loop(BasicBlock header, Set<BasicBlock> blocks) {
+
+    }
+
+    /**
+     * Definitions of the values of the transformed function.
+     * @param blocks blocks defining the registers
+     * @param instructions instructions defining the registers
+     * @param arguments arguments of the function
+     */
+    private record Definitions(Map<Value, BasicBlock> blocks, Map<Value, Instruction> instructions,
+                               Set<Value> arguments) {
+
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        DominatorTree tree = new DominatorTree(function);
+        List<Loop> loops = findLoops(function, tree);
+        if (loops.isEmpty())
+            return false;
+
+        Definitions definitions = new Definitions(new IdentityHashMap<>(), new IdentityHashMap<>(),
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+        definitions.arguments().addAll(function.arguments());
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction.result() != null) {
+                    definitions.blocks().put(instruction.result(), block);
+                    definitions.instructions().put(instruction.result(), instruction);
+                }
+            }
+        }
+
+        /* reverse postorder extended by the inserted preheaders */
+        ArrayList<BasicBlock> order = new ArrayList<>(tree.reversePostorder());
+        boolean changed = false;
+        for (Loop loop : loops) {
+            List<Instruction> invariants = findInvariants(loop, order, definitions);
+            if (invariants.isEmpty())
+                continue;
+            BasicBlock preheader = preheader(function, loop, loops, order);
+            if (preheader == null)
+                continue;
+            for (BasicBlock block : loop.blocks())
+                block.instructions().removeAll(invariants);
+            List<Instruction> instructions = preheader.instructions();
+            instructions.addAll(instructions.size() - 1, invariants);
+            for (Instruction instruction : invariants)
+                definitions.blocks().put(instruction.result(), preheader);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the block which jumps to the loop header from outside the loop,
+     * a new block is inserted if the jump is conditional. The new block becomes
+     * part of the loops containing the jump. Returns null if the loop
+     * is entered from more than one block.
+     * @param order blocks in reverse postorder, the new block is inserted before the header
+     */
+    private static BasicBlock preheader(IrFunction function, Loop loop, List<Loop> loops,
+                                        List<BasicBlock> order) {
+        BasicBlock entering = null;
+        for (BasicBlock block : function.blocks()) {
+            if (loop.blocks().contains(block) || !block.successors().contains(loop.header().name()))
+                continue;
+            if (entering != null)
+                return null;
+            entering = block;
+        }
+        if (entering == null)
+            return null;
+        if (entering.successors().size() == 1)
+            return entering;
+
+        BasicBlock preheader = new BasicBlock(function.newLabel());
+        preheader.append(new BranchInstruction(loop.header().name()));
+        entering.terminator().replaceSuccessor(loop.header().name(), preheader.name());
+        for (Instruction instruction : loop.header().instructions()) {
+            if (!(instruction instanceof PhiInstruction phi))
+                break;
+            phi.replaceIncomingBlock(entering.name(), preheader.name());
+        }
+        List<BasicBlock> blocks = function.blocks();
+        blocks.add(blocks.indexOf(loop.header()), preheader);
+        order.add(order.indexOf(loop.header()), preheader);
+        for (Loop other : loops) {
+            if (other.blocks().contains(entering))
+                other.blocks().add(preheader);
+        }
+        return preheader;
+    }
+
+    /**
+     * Returns the natural loops of the function, inner loops precede outer ones.
+     * Back edges to the same header form a single loop.
+     */
+    private static List<Loop> findLoops(IrFunction function, DominatorTree tree) {
+        Map<String, BasicBlock> byName = function.blockMap();
+        LinkedHashMap<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+        for (BasicBlock block : tree.reversePostorder()) {
+            for (String successor : block.successors()) {
+                BasicBlock header = byName.get(successor);
+                if (!tree.dominates(header, block))
+                    continue;
+                /* the loop consists of the blocks reaching the back edge without passing the header */
+                Set<BasicBlock> blocks = loops.computeIfAbsent(header, k -> {
+                    Set<BasicBlock> set = Collections.newSetFromMap(new IdentityHashMap<>());
+                    set.add(header);
+                    return set;
+                });
+                ArrayDeque<BasicBlock> worklist = new ArrayDeque<>();
+                if (blocks.add(block))
+                    worklist.add(block);
+                while (!worklist.isEmpty()) {
+                    for (BasicBlock predecessor : tree.predecessors().get(worklist.poll())) {
+                        if (tree.isReachable(predecessor) && blocks.add(predecessor))
+                            worklist.add(predecessor);
+                    }
+                }
+            }
+        }
+        ArrayList<Loop> result = new ArrayList<>(loops.size());
+        for (Map.Entry<BasicBlock, Set<BasicBlock>> entry : loops.entrySet())
+            result.add(new Loop(entry.getKey(), entry.getValue()));
+        /* an inner loop has fewer blocks than the loops containing it, the sort is stable */
+        result.sort(Comparator.comparingInt(loop -> loop.blocks().size()));
+        return result;
+    }
+
+    /**
+     * Returns the invariant instructions of a loop in an order
+     * in which they can be executed, i.e. definitions precede uses.
+     */
+    private static List<Instruction> findInvariants(Loop loop, List<BasicBlock> order, Definitions definitions) {
+        ArrayList<Value> stored = new ArrayList<>();
+        boolean writesUnknown = false;
+        for (BasicBlock block : loop.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction instanceof StoreInstruction store)
+                    stored.add(store.pointer());
+                else if (instruction instanceof CallInstruction)
+                    writesUnknown = true;
+            }
+        }
+
+        ArrayList<Instruction> invariants = new ArrayList<>();
+        Set<Value> invariantValues = Collections.newSetFromMap(new IdentityHashMap<>());
+        /* the reverse postorder visits definitions before their uses except for phis */
+        for (BasicBlock block : order) {
+            if (!loop.blocks().contains(block))
+                continue;
+            for (Instruction instruction : block.instructions()) {
+                if (!isMovable(instruction, block == loop.header(), writesUnknown, stored, definitions))
+                    continue;
+                boolean invariant = true;
+                for (Value operand : instruction.operands()) {
+                    BasicBlock definition = definitions.blocks().get(operand);
+                    if (definition != null && loop.blocks().contains(definition)
+                            && !invariantValues.contains(operand)) {
+                        invariant = false;
+                        break;
+                    }
+                }
+                if (invariant) {
+                    invariants.add(instruction);
+                    invariantValues.add(instruction.result());
+                }
+            }
+        }
+        return invariants;
+    }
+
+    /**
+     * Returns true if the instruction may be executed before the loop
+     * provided that its operands are invariant.
+     * @param inHeader the instruction is in the loop header, which runs whenever the loop is entered
+     * @param writesUnknown the loop may write any memory
+     * @param stored addresses the loop stores to
+     */
+    private static boolean isMovable(Instruction instruction, boolean inHeader, boolean writesUnknown,
+                                     List<Value> stored, Definitions definitions) {
+        if (instruction instanceof BinaryInstruction binary) {
+            if (binary.operator() != BinaryInstruction.Operator.SDIV
+                    && binary.operator() != BinaryInstruction.Operator.SREM)
+                return true;
+            /* division traps on zero and overflows on -1 */
+            return binary.rhs() instanceof Constant divisor && divisor.value() != 0 && divisor.value() != -1;
+        }
+        if (instruction instanceof CompareInstruction || instruction instanceof CastInstruction
+                || instruction instanceof GetElementPtrInstruction
+                || instruction instanceof ExtractValueInstruction || instruction instanceof InsertValueInstruction)
+            return true;
+        if (instruction instanceof LoadInstruction load) {
+            if (writesUnknown)
+                return false;
+            if (!inHeader && !(definitions.instructions().get(load.pointer()) instanceof AllocaInstruction alloca
+                    && alloca.count() == null))
+                return false;
+            for (Value pointer : stored) {
+                if (mayAlias(pointer, load.pointer(), definitions))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the object a pointer points into, i.e. follows address
+     * computations, conversions and members of multi-dimensional arrays.
+     */
+    private static Value rootObject(Value pointer, Definitions definitions) {
+        while (true) {
+            Instruction definition = definitions.instructions().get(pointer);
+            if (definition instanceof GetElementPtrInstruction gep) {
+                pointer = gep.pointer();
+            } else if (definition instanceof CastInstruction cast) {
+                pointer = cast.value();
+            } else if (definition instanceof ExtractValueInstruction extract) {
+                Value member = member(extract.aggregate(), extract.index(), definitions);
+                if (member == null)
+                    return extract.aggregate();
+                pointer = member;
+            } else {
+                return pointer;
+            }
+        }
+    }
+
+    /**
+     * Returns the value inserted as a member of a structure, null if it is not known.
+     */
+    private static Value member(Value aggregate, int index, Definitions definitions) {
+        while (definitions.instructions().get(aggregate) instanceof InsertValueInstruction insert) {
+            if (insert.index() == index)
+                return insert.value();
+            aggregate = insert.aggregate();
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the object is memory allocated by the function,
+     * no other pointer can point into it unless derived from this one.
+     */
+    private static boolean isLocalObject(Value object, Definitions definitions) {
+        Instruction definition = definitions.instructions().get(object);
+        return definition instanceof AllocaInstruction || (definition instanceof CallInstruction call
+                && call.callee().equals("__css_arena_alloc"));
+    }
+
+    private static boolean mayAlias(Value a, Value b, Definitions definitions) {
+        Value rootA = rootObject(a, definitions);
+        Value rootB = rootObject(b, definitions);
+        if (rootA == rootB)
+            return true;
+        boolean localA = isLocalObject(rootA, definitions);
+        boolean localB = isLocalObject(rootB, definitions);
+        /* distinct objects do not overlap */
+        if ((localA || rootA instanceof GlobalValue) && (localB || rootB instanceof GlobalValue))
+            return false;
+        /* the memory of the function cannot be passed to it as an argument */
+        return !(localA && definitions.arguments().contains(rootB))
+                && !(localB && definitions.arguments().contains(rootA));
+    }
+}
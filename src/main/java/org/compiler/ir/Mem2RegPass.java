@@ -0,0 +1,234 @@
+package org.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Promotes scalar variables from stack memory to registers, i.e. builds
+ * the SSA form of the function. The visitors keep every scalar in memory
+ * allocated by alloca, this pass replaces loads of such memory by the last
+ * stored values and inserts phi instructions where values of different
+ * paths meet, using the dominance frontiers (Cytron et al.).
+ * Only memory allocated in the entry block, see IrFunction.hoistAllocas(),
+ * and accessed exclusively by loads and stores is promoted.
+ */
+public class Mem2RegPass implements Pass {
+    public Mem2RegPass() {
+
+    }
+
+    @Override
+    public String name() {
+        return "mem2reg";
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        boolean changed = function.removeUnreachableBlocks();
+
+        Map<Register, AllocaInstruction> promoted = promotableAllocas(function);
+        if (promoted.isEmpty())
+            return changed;
+
+        DominatorTree tree = new DominatorTree(function);
+        Map<PhiInstruction, Register> phis = insertPhis(function, tree, promoted);
+        rename(function, tree, promoted, phis);
+        removeDeadPhis(function, phis);
+        return true;
+    }
+
+    private static boolean isScalar(AllocaInstruction alloca) {
+        return alloca.count() == null && alloca.allocatedType().startsWith("i")
+                && !alloca.allocatedType().endsWith("*");
+    }
+
+    /**
+     * Returns scalar allocations whose address is only used
+     * by loads and as the address of stores.
+     */
+    private static Map<Register, AllocaInstruction> promotableAllocas(IrFunction function) {
+        IdentityHashMap<Register, AllocaInstruction> allocas = new IdentityHashMap<>();
+        for (Instruction instruction : function.entry().instructions()) {
+            if (instruction instanceof AllocaInstruction alloca && isScalar(alloca))
+                allocas.put(alloca.result(), alloca);
+        }
+        if (allocas.isEmpty())
+            return allocas;
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction instanceof LoadInstruction)
+                    continue;
+                if (instruction instanceof StoreInstruction store) {
+                    if (store.value() instanceof Register register)
+                        allocas.remove(register);
+                    continue;
+                }
+                for (Value operand : instruction.operands()) {
+                    if (operand instanceof Register register)
+                        allocas.remove(register);
+                }
+            }
+        }
+        return allocas;
+    }
+
+    /**
+     * Places phi instructions to the iterated dominance frontiers
+     * of the blocks storing to the promoted memory.
+     * @return map of the inserted phi instructions to the allocations they belong to
+     */
+    private static Map<PhiInstruction, Register> insertPhis(IrFunction function, DominatorTree tree,
+                                                            Map<Register, AllocaInstruction> promoted) {
+        /* ordered, so that the phi registers are numbered deterministically */
+        LinkedHashMap<Register, Set<BasicBlock>> definitions = new LinkedHashMap<>();
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction instanceof StoreInstruction store && store.pointer() instanceof Register pointer
+                        && promoted.containsKey(pointer))
+                    definitions.computeIfAbsent(pointer, k -> new LinkedHashSet<>()).add(block);
+            }
+        }
+
+        Map<BasicBlock, Set<BasicBlock>> frontiers = tree.dominanceFrontiers();
+        IdentityHashMap<PhiInstruction, Register> phis = new IdentityHashMap<>();
+        for (Map.Entry<Register, Set<BasicBlock>> entry : definitions.entrySet()) {
+            Register alloca = entry.getKey();
+            Set<BasicBlock> hasPhi = Collections.newSetFromMap(new IdentityHashMap<>());
+            ArrayDeque<BasicBlock> worklist = new ArrayDeque<>(entry.getValue());
+            while (!worklist.isEmpty()) {
+                for (BasicBlock frontier : frontiers.get(worklist.poll())) {
+                    if (!hasPhi.add(frontier))
+                        continue;
+                    PhiInstruction phi = new PhiInstruction(
+                            function.newRegister(promoted.get(alloca).allocatedType()));
+                    frontier.instructions().add(0, phi);
+                    phis.put(phi, alloca);
+                    worklist.add(frontier);
+                }
+            }
+        }
+        return phis;
+    }
+
+    /**
+     * Walks the dominator tree and replaces every load by the value
+     * stored last on the path from the entry. Loads preceding all
+     * stores read zero. Promoted loads, stores and allocations are removed.
+     */
+    private static void rename(IrFunction function, DominatorTree tree, Map<Register, AllocaInstruction> promoted,
+                               Map<PhiInstruction, Register> phis) {
+        Map<String, BasicBlock> byName = function.blockMap();
+        IdentityHashMap<Register, ArrayDeque<Value>> current = new IdentityHashMap<>();
+        for (Register alloca : promoted.keySet())
+            current.put(alloca, new ArrayDeque<>());
+        HashMap<Value, Value> replacements = new HashMap<>();
+
+        /* a null block marks the end of the subtree of the block below it */
+        ArrayList<BasicBlock> stack = new ArrayList<>();
+        ArrayDeque<List<Register>> definedStack = new ArrayDeque<>();
+        stack.add(function.entry());
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.remove(stack.size() - 1);
+            if (block == null) {
+                for (Register alloca : definedStack.pop())
+                    current.get(alloca).pop();
+                continue;
+            }
+
+            ArrayList<Register> defined = new ArrayList<>();
+            ArrayList<Instruction> kept = new ArrayList<>(block.instructions().size());
+            for (Instruction instruction : block.instructions()) {
+                if (instruction instanceof PhiInstruction phi && phis.containsKey(phi)) {
+                    current.get(phis.get(phi)).push(phi.result());
+                    defined.add(phis.get(phi));
+                } else if (instruction instanceof LoadInstruction load
+                        && load.pointer() instanceof Register pointer && promoted.containsKey(pointer)) {
+                    replacements.put(load.result(), currentValue(current, promoted, pointer));
+                    continue;
+                } else if (instruction instanceof StoreInstruction store
+                        && store.pointer() instanceof Register pointer && promoted.containsKey(pointer)) {
+                    current.get(pointer).push(replacements.getOrDefault(store.value(), store.value()));
+                    defined.add(pointer);
+                    continue;
+                } else if (instruction instanceof AllocaInstruction alloca && promoted.containsKey(alloca.result())) {
+                    continue;
+                }
+                kept.add(instruction);
+            }
+            block.instructions().clear();
+            block.instructions().addAll(kept);
+
+            for (String successor : new LinkedHashSet<>(block.successors())) {
+                for (Instruction instruction : byName.get(successor).instructions()) {
+                    if (!(instruction instanceof PhiInstruction phi))
+                        break;
+                    Register alloca = phis.get(phi);
+                    if (alloca != null)
+                        phi.addIncoming(currentValue(current, promoted, alloca), block.name());
+                }
+            }
+
+            definedStack.push(defined);
+            stack.add(null);
+            stack.addAll(tree.children(block));
+        }
+
+        if (replacements.isEmpty())
+            return;
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions())
+                instruction.replaceOperands(replacements);
+        }
+    }
+
+    private static Value currentValue(Map<Register, ArrayDeque<Value>> current,
+                                      Map<Register, AllocaInstruction> promoted, Register alloca) {
+        Value value = current.get(alloca).peek();
+        return value != null ? value : new Constant(promoted.get(alloca).allocatedType(), 0);
+    }
+
+    /**
+     * Removes inserted phi instructions whose values are never used
+     * except by other such phi instructions.
+     */
+    private static void removeDeadPhis(IrFunction function, Map<PhiInstruction, Register> phis) {
+        IdentityHashMap<Register, PhiInstruction> definitions = new IdentityHashMap<>();
+        for (PhiInstruction phi : phis.keySet())
+            definitions.put(phi.result(), phi);
+
+        Set<PhiInstruction> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<PhiInstruction> worklist = new ArrayDeque<>();
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction instanceof PhiInstruction phi && phis.containsKey(phi))
+                    continue;
+                for (Value operand : instruction.operands()) {
+                    PhiInstruction phi = definitions.get(operand);
+                    if (phi != null && live.add(phi))
+                        worklist.add(phi);
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            for (Value operand : worklist.poll().operands()) {
+                PhiInstruction phi = definitions.get(operand);
+                if (phi != null && live.add(phi))
+                    worklist.add(phi);
+            }
+        }
+
+        if (live.size() == phis.size())
+            return;
+        for (BasicBlock block : function.blocks())
+            block.instructions().removeIf(instruction -> instruction instanceof PhiInstruction phi
+                    && phis.containsKey(phi) && !live.contains(phi));
+    }
+}
@@ -0,0 +1,19 @@
+package org.compiler.ir;
+
+/**
+ * A transformation of a single function run before the function is printed.
+ * A pass may run on several functions concurrently, so it must not keep
+ * state of the transformed function in its fields.
+ */
+public interface Pass {
+    /**
+     * Returns the name used to enable, disable and report the pass.
+     */
+    String name();
+
+    /**
+     * Transforms the function in place.
+     * @return true if the function was changed
+     */
+    boolean run(IrFunction function);
+}
@@ -0,0 +1,117 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs an ordered pipeline of passes on every generated function.
+ * Optionally measures the time taken by every pass and the number
+ * of instructions before and after it, summed over all functions.
+ */
+public class PassManager {
+    private final ArrayList<Pass> passes = new ArrayList<>();
+    /* statistics of the passes in the order of the passes, null if not collected */
+    private ArrayList<Statistics> statistics = null;
+
+    /**
+     * Totals of a pass over all functions, functions may be
+     * transformed concurrently.
+     */
+    private static class Statistics {
+        final LongAdder nanos = new LongAdder();
+        final LongAdder instructionsBefore = new LongAdder();
+        final LongAdder instructionsAfter = new LongAdder();
+        final LongAdder functions = new LongAdder();
+        final LongAdder changedFunctions = new LongAdder();
+    }
+
+    public PassManager() {
+
+    }
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        if (statistics != null)
+            statistics.add(new Statistics());
+        return this;
+    }
+
+    public List<Pass> passes() {
+        return passes;
+    }
+
+    /**
+     * Makes run() collect the statistics printed by report().
+     */
+    public PassManager collectStatistics() {
+        statistics = new ArrayList<>(passes.size());
+        for (int i = 0; i < passes.size(); ++i)
+            statistics.add(new Statistics());
+        return this;
+    }
+
+    /**
+     * Runs all passes in the order they were added.
+     * @return true if any pass changed the function
+     */
+    public boolean run(IrFunction function) {
+        boolean changed = false;
+        for (int i = 0; i < passes.size(); ++i) {
+            if (statistics == null) {
+                changed |= passes.get(i).run(function);
+                continue;
+            }
+            Statistics passStatistics = statistics.get(i);
+            passStatistics.instructionsBefore.add(instructionCount(function));
+            long start = System.nanoTime();
+            boolean passChanged = passes.get(i).run(function);
+            passStatistics.nanos.add(System.nanoTime() - start);
+            passStatistics.instructionsAfter.add(instructionCount(function));
+            passStatistics.functions.increment();
+            if (passChanged)
+                passStatistics.changedFunctions.increment();
+            changed |= passChanged;
+        }
+        return changed;
+    }
+
+    private static int instructionCount(IrFunction function) {
+        int count = 0;
+        for (BasicBlock block : function.blocks())
+            count += block.instructions().size();
+        return count;
+    }
+
+    /**
+     * Returns a line for every pass in the order the passes run with the time
+     * it took and the number of instructions of the transformed functions before
+     * and after the pass, followed by the totals of the pipeline.
+     */
+    public String report() {
+        if (statistics == null)
+            return "";
+        StringBuilder report = new StringBuilder();
+        long totalNanos = 0;
+        for (int i = 0; i < passes.size(); ++i) {
+            Statistics passStatistics = statistics.get(i);
+            totalNanos += passStatistics.nanos.sum();
+            report.append(reportLine(passes.get(i).name(), passStatistics.nanos.sum(),
+                    passStatistics.instructionsBefore.sum(), passStatistics.instructionsAfter.sum()));
+            report.append(String.format(", changed %d of %d functions%n",
+                    passStatistics.changedFunctions.sum(), passStatistics.functions.sum()));
+        }
+        if (!passes.isEmpty()) {
+            report.append(reportLine("total", totalNanos, statistics.get(0).instructionsBefore.sum(),
+                    statistics.get(passes.size() - 1).instructionsAfter.sum()));
+            report.append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    private static String reportLine(String name, long nanos, long before, long after) {
+        double change = before == 0 ? 0 : 100.0 * (after - before) / before;
+        return String.format("%-10s %9.3f ms %8d -> %8d instructions (%+.1f%%)",
+                name, nanos / 1e6, before, after, change);
+    }
+}
@@ -0,0 +1,75 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects a value depending on the predecessor block control came from.
+ * Phi instructions are placed at the beginning of a block and have one
+ * incoming value for every predecessor of the block.
+ */
+public class PhiInstruction extends Instruction {
+    private final Register result;
+    private final ArrayList<Value> values = new ArrayList<>();
+    private final ArrayList<String> blocks = new ArrayList<>();
+
+    public PhiInstruction(Register result) {
+        this.result = result;
+    }
+
+    @Override
+    public Register result() {
+        return result;
+    }
+
+    /**
+     * @param block label of the predecessor the value comes from
+     */
+    public void addIncoming(Value value, String block) {
+        values.add(value);
+        blocks.add(block);
+    }
+
+    public List<Value> values() {
+        return values;
+    }
+
+    /**
+     * Returns labels of the predecessors, the i-th label belongs to the i-th value.
+     */
+    public List<String> blocks() {
+        return blocks;
+    }
+
+    /**
+     * Removes the value coming from a predecessor which no longer jumps to the block.
+     */
+    public void removeIncoming(String block) {
+        int i = blocks.indexOf(block);
+        if (i >= 0) {
+            values.remove(i);
+            blocks.remove(i);
+        }
+    }
+
+    /**
+     * Renames a predecessor, e.g. when an edge is split by a new block.
+     */
+    public void replaceIncomingBlock(String from, String to) {
+        for (int i = 0; i < blocks.size(); ++i) {
+            if (blocks.get(i).equals(from))
+                blocks.set(i, to);
+        }
+    }
+
+    @Override
+    public List<Value> operands() {
+        return values;
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        values.replaceAll(value -> replacement(value, replacements));
+    }
+}
@@ -0,0 +1,22 @@
+package org.compiler.ir;
+
+/**
+ * Represents a LLVM virtual register, e.g. %reg5.
+ */
+public class Register extends Value {
+    private final String name;
+
+    /**
+     * @param name name of the register including '%'
+     * @param type LLVM type of the register
+     */
+    public Register(String name, String type) {
+        super(type);
+        this.name = name;
+    }
+
+    @Override
+    public String ref() {
+        return name;
+    }
+}
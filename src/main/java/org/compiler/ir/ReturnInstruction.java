@@ -0,0 +1,32 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+public class ReturnInstruction extends Instruction {
+    /* null if the function returns void */
+    private Value value;
+
+    public ReturnInstruction(Value value) {
+        this.value = value;
+    }
+
+    public Value value() {
+        return value;
+    }
+
+    @Override
+    public boolean isTerminator() {
+        return true;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return value == null ? List.of() : List.of(value);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        value = replacement(value, replacements);
+    }
+}
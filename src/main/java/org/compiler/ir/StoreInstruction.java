@@ -0,0 +1,33 @@
+package org.compiler.ir;
+
+import java.util.List;
+import java.util.Map;
+
+public class StoreInstruction extends Instruction {
+    private Value value;
+    private Value pointer;
+
+    public StoreInstruction(Value value, Value pointer) {
+        this.value = value;
+        this.pointer = pointer;
+    }
+
+    public Value value() {
+        return value;
+    }
+
+    public Value pointer() {
+        return pointer;
+    }
+
+    @Override
+    public List<Value> operands() {
+        return List.of(value, pointer);
+    }
+
+    @Override
+    public void replaceOperands(Map<Value, Value> replacements) {
+        value = replacement(value, replacements);
+        pointer = replacement(pointer, replacements);
+    }
+}
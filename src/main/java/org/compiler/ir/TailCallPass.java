@@ -0,0 +1,213 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizes calls in tail position, i.e. calls immediately followed
+ * by a return of their result. A function calling itself in tail position
+ * jumps back to its beginning instead, with the arguments of the call
+ * becoming the new values of the parameters, so tail recursion runs
+ * in constant stack space. The call stays a call if it passes on an array
+ * allocated on the stack by the function, which the jump would free.
+ * Other tail calls are marked 'tail' if the callee
+ * cannot access the stack memory of the caller, and 'musttail' if moreover
+ * the caller and the callee have the same prototype, so that LLVM has to
+ * replace the call by a jump.
+ */
+public class TailCallPass implements Pass {
+    public TailCallPass() {
+
+    }
+
+    @Override
+    public String name() {
+        return "tailcall";
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        Map<Value, Instruction> definitions = definitions(function);
+        ArrayList<BasicBlock> recursive = new ArrayList<>();
+        ArrayList<CallInstruction> tailCalls = new ArrayList<>();
+        for (BasicBlock block : function.blocks()) {
+            CallInstruction call = tailCall(block);
+            /* the callee reads an array in the frame of the caller, so the frame must stay */
+            if (call == null || passesStack(call, definitions))
+                continue;
+            if (call.callee().equals(function.name()))
+                recursive.add(block);
+            else if (call.signature() == null)
+                tailCalls.add(call);
+        }
+
+        boolean changed = false;
+        if (!recursive.isEmpty()) {
+            toLoop(function, recursive);
+            changed = true;
+        }
+        if (tailCalls.isEmpty())
+            return changed;
+
+        for (CallInstruction call : tailCalls) {
+            call.setTail(hasSamePrototype(function, call)
+                    ? CallInstruction.Tail.MUSTTAIL : CallInstruction.Tail.TAIL);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the call preceding the return which ends the block
+     * if the return passes on the result of the call, null otherwise.
+     */
+    private static CallInstruction tailCall(BasicBlock block) {
+        List<Instruction> instructions = block.instructions();
+        if (instructions.size() < 2 || !(instructions.get(instructions.size() - 1) instanceof ReturnInstruction ret)
+                || !(instructions.get(instructions.size() - 2) instanceof CallInstruction call))
+            return null;
+        return ret.value() == call.result() ? call : null;
+    }
+
+    private static Map<Value, Instruction> definitions(IrFunction function) {
+        Map<Value, Instruction> definitions = new IdentityHashMap<>();
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction.result() != null)
+                    definitions.put(instruction.result(), instruction);
+            }
+        }
+        return definitions;
+    }
+
+    private static boolean passesStack(CallInstruction call, Map<Value, Instruction> definitions) {
+        Set<Value> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Value argument : call.arguments()) {
+            if (pointsToStack(argument, definitions, visited))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean allocatesArrays(IrFunction function) {
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                if (instruction instanceof AllocaInstruction alloca && alloca.count() != null)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasSamePrototype(IrFunction function, CallInstruction call) {
+        if (!call.returnType().equals(function.returnType())
+                || call.arguments().size() != function.arguments().size())
+            return false;
+        for (int i = 0; i < call.arguments().size(); ++i) {
+            if (!call.arguments().get(i).type().equals(function.arguments().get(i).type()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the value may be a pointer into memory allocated by alloca,
+     * e.g. a local array passed to the callee.
+     * @param visited phis already examined, which break cycles of loops
+     */
+    private static boolean pointsToStack(Value value, Map<Value, Instruction> definitions, Set<Value> visited) {
+        Instruction definition = definitions.get(value);
+        if (definition instanceof AllocaInstruction)
+            return true;
+        if (!(definition instanceof GetElementPtrInstruction || definition instanceof CastInstruction
+                || definition instanceof ExtractValueInstruction || definition instanceof InsertValueInstruction
+                || definition instanceof PhiInstruction))
+            return false;
+        if (!visited.add(value))
+            return false;
+        for (Value operand : definition.operands()) {
+            if (pointsToStack(operand, definitions, visited))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the self-recursive tail calls ending the blocks by jumps
+     * to a new block following the allocations of the entry block.
+     * The new block starts with a phi for every parameter, which merges
+     * the passed arguments with those of the recursive calls.
+     * None of the calls passes on an array allocated on the stack.
+     */
+    private static void toLoop(IrFunction function, List<BasicBlock> recursive) {
+        BasicBlock entry = function.entry();
+        BasicBlock header = new BasicBlock(function.newLabel());
+        /*
+         * single allocations are done once, arrays are allocated again by every call,
+         * the arena is released to the position saved by the first call
+         */
+        ArrayList<Instruction> kept = new ArrayList<>();
+        for (Instruction instruction : entry.instructions()) {
+            if (instruction instanceof AllocaInstruction alloca && alloca.count() == null
+                    || instruction instanceof CallInstruction call && call.callee().equals("__css_arena_mark"))
+                kept.add(instruction);
+            else
+                header.append(instruction);
+        }
+        /*
+         * the arrays of a call are not used by the next one, the stack is restored
+         * before every jump, otherwise it would grow with every call like a recursion;
+         * an array passed on would have to outlive the restore, such calls stay calls
+         */
+        Register stack = null;
+        if (allocatesArrays(function)) {
+            stack = function.newRegister("i8*");
+            kept.add(new CallInstruction(stack, "i8*", null, "llvm.stacksave", List.of()));
+        }
+        entry.instructions().clear();
+        entry.instructions().addAll(kept);
+        entry.append(new BranchInstruction(header.name()));
+        function.blocks().add(1, header);
+
+        /* the successors of the entry are entered from the header now */
+        Map<String, BasicBlock> byName = function.blockMap();
+        for (String successor : header.successors()) {
+            for (Instruction instruction : byName.get(successor).instructions()) {
+                if (!(instruction instanceof PhiInstruction phi))
+                    break;
+                phi.replaceIncomingBlock(entry.name(), header.name());
+            }
+        }
+
+        IdentityHashMap<Value, Value> parameters = new IdentityHashMap<>();
+        ArrayList<PhiInstruction> phis = new ArrayList<>();
+        for (Register argument : function.arguments()) {
+            PhiInstruction phi = new PhiInstruction(function.newRegister(argument.type()));
+            phi.addIncoming(argument, entry.name());
+            parameters.put(argument, phi.result());
+            phis.add(phi);
+        }
+        for (BasicBlock block : function.blocks()) {
+            for (Instruction instruction : block.instructions())
+                instruction.replaceOperands(parameters);
+        }
+
+        for (BasicBlock block : recursive) {
+            if (block == entry)
+                block = header;
+            List<Instruction> instructions = block.instructions();
+            CallInstruction call = (CallInstruction) instructions.get(instructions.size() - 2);
+            for (int i = 0; i < phis.size(); ++i)
+                phis.get(i).addIncoming(call.arguments().get(i), block.name());
+            instructions.subList(instructions.size() - 2, instructions.size()).clear();
+            if (stack != null)
+                instructions.add(new CallInstruction(null, "void", null, "llvm.stackrestore", List.of(stack)));
+            instructions.add(new BranchInstruction(header.name()));
+        }
+        header.instructions().addAll(0, phis);
+    }
+}
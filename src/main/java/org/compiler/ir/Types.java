@@ -0,0 +1,42 @@
+package org.compiler.ir;
+
+/**
+ * Helper functions which work with LLVM types represented as strings.
+ */
+public final class Types {
+    private Types() {
+
+    }
+
+    public static String pointerTo(String type) {
+        return type + "*";
+    }
+
+    /**
+     * Returns the type a pointer points to, i.e. removes one star.
+     */
+    public static String pointee(String pointerType) {
+        if (!pointerType.endsWith("*"))
+            throw new IllegalArgumentException("not a pointer type: " + pointerType);
+        return pointerType.substring(0, pointerType.length() - 1);
+    }
+
+    /**
+     * Returns element type of an array type, i.e. i8 for [3 x i8].
+     */
+    public static String arrayElement(String arrayType) {
+        if (!arrayType.startsWith("["))
+            throw new IllegalArgumentException("not an array type: " + arrayType);
+        return arrayType.substring(arrayType.indexOf(" x ") + 3, arrayType.length() - 1);
+    }
+
+    /**
+     * Returns type of a member of a structure type, i.e. i32 for { i8*, i32 } and index 1.
+     */
+    public static String structElement(String structType, int index) {
+        if (!structType.startsWith("{ ") || !structType.endsWith(" }"))
+            throw new IllegalArgumentException("not a structure type: " + structType);
+        String[] elements = structType.substring(2, structType.length() - 2).split(", ");
+        return elements[index];
+    }
+}
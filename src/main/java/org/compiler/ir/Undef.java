@@ -0,0 +1,16 @@
+package org.compiler.ir;
+
+/**
+ * Represents a value with unspecified contents, used
+ * as the initial aggregate when a structure is built by insertvalue.
+ */
+public class Undef extends Value {
+    public Undef(String type) {
+        super(type);
+    }
+
+    @Override
+    public String ref() {
+        return "undef";
+    }
+}
@@ -0,0 +1,28 @@
+package org.compiler.ir;
+
+/**
+ * Represents an operand of an instruction. Every value
+ * has an LLVM type, e.g. i32 or i8**.
+ */
+public abstract class Value {
+    private final String type;
+
+    protected Value(String type) {
+        this.type = type;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    /**
+     * Returns the textual form of the value used
+     * as an instruction operand, i.e. without its type.
+     */
+    public abstract String ref();
+
+    @Override
+    public String toString() {
+        return type + " " + ref();
+    }
+}
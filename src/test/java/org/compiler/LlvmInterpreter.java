@@ -0,0 +1,993 @@
+package org.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs the LLVM code generated by the compiler, so that programs can be tested
+ * without clang. Only the instructions printed by IrPrinter and the functions
+ * of the runtime library are supported. Memory is a byte array and addresses
+ * are offsets into it, arrays allocated in the arena live in a second array.
+ * Undefined behaviour which the generated code must not have, e.g. a division
+ * by zero or reaching past allocated memory, stops the program.
+ */
+class LlvmInterpreter {
+    /**
+     * Thrown when the program does something the interpreter cannot run
+     * or whose behaviour is undefined.
+     */
+    static class ExecutionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ExecutionException(String message) {
+            super(message);
+        }
+    }
+
+    private static final long ARENA_BASE = 1L << 40;
+    private static final int ALIGN = 16;
+
+    private final HashMap<String, Long> globals = new HashMap<>();
+    private final HashMap<String, FunctionCode> functions = new HashMap<>();
+    private byte[] memory = new byte[1 << 16];
+    private int stackTop = ALIGN;
+    private int peakStackTop = ALIGN;
+    private byte[] arena = new byte[1 << 16];
+    private long arenaTop = ARENA_BASE;
+
+    private String input = "";
+    private int inputPosition = 0;
+    private final StringBuilder output = new StringBuilder();
+    private long executedInstructions = 0;
+
+    LlvmInterpreter() {
+
+    }
+
+    /**
+     * Adds the functions and global strings of a module, modules
+     * of a program may call functions defined by each other.
+     */
+    void load(String module) {
+        String[] lines = module.split("\n", -1);
+        for (int i = 0; i < lines.length; ++i) {
+            String line = lines[i];
+            if (line.startsWith("@")) {
+                loadGlobal(line);
+            } else if (line.startsWith("define ")) {
+                ArrayList<String> body = new ArrayList<>();
+                /* the opening brace is on its own line */
+                i += 2;
+                while (!lines[i].equals("}"))
+                    body.add(lines[i++]);
+                FunctionCode function = new FunctionCode(line, body);
+                functions.put(function.name, function);
+            }
+        }
+    }
+
+    /**
+     * Runs main() of the loaded modules.
+     * @return everything the program wrote
+     */
+    String run(String programInput) {
+        input = programInput;
+        inputPosition = 0;
+        output.setLength(0);
+        call("main", new Object[0]);
+        return output.toString();
+    }
+
+    /**
+     * Returns the number of instructions executed by run() so far.
+     */
+    long executedInstructions() {
+        return executedInstructions;
+    }
+
+    /**
+     * Returns the most bytes the program has held on the stack at once.
+     */
+    long peakStackSize() {
+        return peakStackTop - ALIGN;
+    }
+
+    /* ---------------------------------------------------------------- types */
+
+    private static final class Type {
+        final char kind;
+        /* bits of an integer, number of elements of an array */
+        final int count;
+        final Type element;
+        final List<Type> fields;
+
+        private Type(char kind, int count, Type element, List<Type> fields) {
+            this.kind = kind;
+            this.count = count;
+            this.element = element;
+            this.fields = fields;
+        }
+
+        static final Type VOID = new Type('v', 0, null, null);
+
+        boolean isAggregate() {
+            return kind == 's';
+        }
+
+        int size() {
+            return switch (kind) {
+                case 'i' -> Math.max(1, count / 8);
+                case 'p' -> 8;
+                case 'a' -> count * element.size();
+                case 's' -> alignTo(fieldOffset(fields.size()), align());
+                default -> throw new ExecutionException("type without size");
+            };
+        }
+
+        int align() {
+            return switch (kind) {
+                case 'a' -> element.align();
+                case 's' -> fields.stream().mapToInt(Type::align).max().orElse(1);
+                default -> size();
+            };
+        }
+
+        int fieldOffset(int index) {
+            int offset = 0;
+            for (int i = 0; i < index; ++i)
+                offset = alignTo(offset, fields.get(i).align()) + fields.get(i).size();
+            return index < fields.size() ? alignTo(offset, fields.get(index).align()) : offset;
+        }
+
+        private static int alignTo(int offset, int align) {
+            return (offset + align - 1) / align * align;
+        }
+    }
+
+    /**
+     * Parses types of the forms iN, [N x T], { T, ... }, void and T*.
+     */
+    private static final class TypeParser {
+        final String text;
+        int position;
+
+        TypeParser(String text, int position) {
+            this.text = text;
+            this.position = position;
+        }
+
+        Type parse() {
+            skipSpaces();
+            Type type;
+            if (text.startsWith("void", position)) {
+                position += 4;
+                type = Type.VOID;
+            } else if (text.charAt(position) == 'i') {
+                int end = ++position;
+                while (end < text.length() && Character.isDigit(text.charAt(end)))
+                    ++end;
+                type = new Type('i', Integer.parseInt(text.substring(position, end)), null, null);
+                position = end;
+            } else if (text.charAt(position) == '[') {
+                int x = text.indexOf(" x ", position);
+                int count = Integer.parseInt(text.substring(position + 1, x));
+                position = x + 3;
+                Type element = parse();
+                expect(']');
+                type = new Type('a', count, element, null);
+            } else if (text.charAt(position) == '{') {
+                ++position;
+                ArrayList<Type> fields = new ArrayList<>();
+                while (true) {
+                    skipSpaces();
+                    if (text.charAt(position) == '}')
+                        break;
+                    fields.add(parse());
+                    skipSpaces();
+                    if (text.charAt(position) == ',')
+                        ++position;
+                }
+                ++position;
+                type = new Type('s', 0, null, fields);
+            } else {
+                throw new ExecutionException("unknown type " + text.substring(position));
+            }
+            while (position < text.length() && text.charAt(position) == '*') {
+                ++position;
+                type = new Type('p', 0, type, null);
+            }
+            return type;
+        }
+
+        String rest() {
+            return text.substring(position).trim();
+        }
+
+        private void skipSpaces() {
+            while (position < text.length() && text.charAt(position) == ' ')
+                ++position;
+        }
+
+        private void expect(char c) {
+            skipSpaces();
+            if (text.charAt(position) != c)
+                throw new ExecutionException("expected " + c + " in " + text);
+            ++position;
+        }
+    }
+
+    private static Type parseType(String text) {
+        return new TypeParser(text, 0).parse();
+    }
+
+    /**
+     * Splits a list at commas which are not nested in a type.
+     */
+    private static List<String> splitList(String text) {
+        ArrayList<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '[' || c == '{' || c == '(')
+                ++depth;
+            else if (c == ']' || c == '}' || c == ')')
+                --depth;
+            else if (c == ',' && depth == 0) {
+                parts.add(text.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        if (!text.isBlank())
+            parts.add(text.substring(start).trim());
+        return parts;
+    }
+
+    /* --------------------------------------------------------------- memory */
+
+    private long allocateStack(long size) {
+        long address = stackTop;
+        long top = (stackTop + size + ALIGN - 1) / ALIGN * ALIGN;
+        if (size < 0 || top > Integer.MAX_VALUE - ALIGN)
+            throw new ExecutionException("stack overflow");
+        stackTop = (int) top;
+        peakStackTop = Math.max(peakStackTop, stackTop);
+        while (stackTop > memory.length)
+            memory = Arrays.copyOf(memory, memory.length * 2);
+        return address;
+    }
+
+    private long allocateArena(long size) {
+        if (size < 0)
+            throw new ExecutionException("negative array size");
+        long address = arenaTop;
+        arenaTop = (arenaTop + size + ALIGN - 1) / ALIGN * ALIGN;
+        while (arenaTop - ARENA_BASE > arena.length)
+            arena = Arrays.copyOf(arena, arena.length * 2);
+        /* released memory is reused and the program must not see what it held */
+        Arrays.fill(arena, (int) (address - ARENA_BASE), (int) (arenaTop - ARENA_BASE), (byte) 0);
+        return address;
+    }
+
+    private byte[] region(long address, int size) {
+        if (address >= ARENA_BASE && address + size <= arenaTop)
+            return arena;
+        if (address >= ALIGN && address + size <= stackTop)
+            return memory;
+        throw new ExecutionException("access to unallocated memory at " + address);
+    }
+
+    private int offset(long address) {
+        return (int) (address >= ARENA_BASE ? address - ARENA_BASE : address);
+    }
+
+    private long readInteger(long address, int size) {
+        byte[] bytes = region(address, size);
+        int offset = offset(address);
+        long value = 0;
+        for (int i = size - 1; i >= 0; --i)
+            value = value << 8 | (bytes[offset + i] & 0xff);
+        return value;
+    }
+
+    private void writeInteger(long address, int size, long value) {
+        byte[] bytes = region(address, size);
+        int offset = offset(address);
+        for (int i = 0; i < size; ++i)
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+    }
+
+    private Object load(Type type, long address) {
+        return switch (type.kind) {
+            case 'i' -> normalize(readInteger(address, type.size()), type.count);
+            case 'p' -> readInteger(address, 8);
+            case 's' -> {
+                Object[] value = new Object[type.fields.size()];
+                for (int i = 0; i < value.length; ++i)
+                    value[i] = load(type.fields.get(i), address + type.fieldOffset(i));
+                yield value;
+            }
+            default -> throw new ExecutionException("cannot load a value of this type");
+        };
+    }
+
+    private void store(Type type, Object value, long address) {
+        switch (type.kind) {
+            case 'i', 'p' -> writeInteger(address, type.size(), (Long) value);
+            case 's' -> {
+                Object[] fields = (Object[]) value;
+                for (int i = 0; i < fields.length; ++i)
+                    store(type.fields.get(i), fields[i], address + type.fieldOffset(i));
+            }
+            default -> throw new ExecutionException("cannot store a value of this type");
+        }
+    }
+
+    private int readByte(long address) {
+        return (int) readInteger(address, 1);
+    }
+
+    private String readString(long address) {
+        StringBuilder sb = new StringBuilder();
+        for (int c = readByte(address); c != 0; c = readByte(++address))
+            sb.append((char) c);
+        return sb.toString();
+    }
+
+    private void writeString(long address, String text) {
+        for (int i = 0; i < text.length(); ++i)
+            writeInteger(address + i, 1, text.charAt(i));
+        writeInteger(address + text.length(), 1, 0);
+    }
+
+    /**
+     * Returns the value of an integer of the given width, sign-extended
+     * to 64 bits, except i1 which is 0 or 1.
+     */
+    private static long normalize(long value, int bits) {
+        if (bits == 1)
+            return value & 1;
+        if (bits >= 64)
+            return value;
+        return value << (64 - bits) >> (64 - bits);
+    }
+
+    private void loadGlobal(String line) {
+        int assign = line.indexOf(" = ");
+        String name = line.substring(1, assign);
+        int quote = line.indexOf("c\"");
+        if (quote < 0)
+            throw new ExecutionException("unsupported global " + line);
+        String body = line.substring(quote + 2, line.lastIndexOf('"'));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < body.length(); ++i) {
+            if (body.charAt(i) == '\\') {
+                text.append((char) Integer.parseInt(body.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                text.append(body.charAt(i));
+            }
+        }
+        /* the escaped terminating null is part of the body */
+        long address = allocateStack(text.length());
+        for (int i = 0; i < text.length(); ++i)
+            writeInteger(address + i, 1, text.charAt(i));
+        globals.put(name, address);
+    }
+
+    /* ---------------------------------------------------------------- code */
+
+    private interface Operand {
+        Object get(Object[] registers);
+    }
+
+    private record Register(int index) implements Operand {
+        @Override
+        public Object get(Object[] registers) {
+            Object value = registers[index];
+            if (value == null)
+                throw new ExecutionException("register used before it is defined");
+            return value;
+        }
+    }
+
+    private record Immediate(Object value) implements Operand {
+        @Override
+        public Object get(Object[] registers) {
+            return value;
+        }
+    }
+
+    private final class Global implements Operand {
+        private final String name;
+
+        Global(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object get(Object[] registers) {
+            Long address = globals.get(name);
+            if (address == null)
+                throw new ExecutionException("undefined global @" + name);
+            return address;
+        }
+    }
+
+    private record TypedOperand(Type type, Operand operand) {
+
+    }
+
+    private abstract static class Instruction {
+        /* register receiving the result, -1 if there is none */
+        int result = -1;
+    }
+
+    private static final class Binary extends Instruction {
+        String opcode;
+        int bits;
+        Operand lhs;
+        Operand rhs;
+    }
+
+    private static final class Compare extends Instruction {
+        String predicate;
+        int bits;
+        Operand lhs;
+        Operand rhs;
+    }
+
+    private static final class Cast extends Instruction {
+        String opcode;
+        Type from;
+        Type to;
+        Operand value;
+    }
+
+    private static final class Alloca extends Instruction {
+        Type type;
+        Operand count;
+    }
+
+    private static final class Load extends Instruction {
+        Type type;
+        Operand pointer;
+    }
+
+    private static final class Store extends Instruction {
+        Type type;
+        Operand value;
+        Operand pointer;
+    }
+
+    private static final class GetElementPtr extends Instruction {
+        Type type;
+        Operand pointer;
+        List<TypedOperand> indices;
+    }
+
+    private static final class ExtractValue extends Instruction {
+        Operand aggregate;
+        int index;
+    }
+
+    private static final class InsertValue extends Instruction {
+        Operand aggregate;
+        Operand value;
+        int index;
+    }
+
+    private static final class Call extends Instruction {
+        String callee;
+        List<Operand> arguments;
+    }
+
+    private static final class Phi extends Instruction {
+        Operand[] values;
+        int[] blocks;
+    }
+
+    private static final class Branch extends Instruction {
+        Operand condition;
+        int trueTarget;
+        int falseTarget;
+    }
+
+    private static final class Return extends Instruction {
+        Operand value;
+    }
+
+    private static final class Block {
+        final String name;
+        final ArrayList<Phi> phis = new ArrayList<>();
+        final ArrayList<Instruction> instructions = new ArrayList<>();
+
+        Block(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A function parsed to blocks of instructions whose registers
+     * are numbered, so they are kept in an array while the function runs.
+     */
+    private final class FunctionCode {
+        final String name;
+        final int[] parameters;
+        final ArrayList<Block> blocks = new ArrayList<>();
+        private final HashMap<String, Integer> registers = new HashMap<>();
+        private final HashMap<String, Integer> blockIndices = new HashMap<>();
+
+        FunctionCode(String header, List<String> body) {
+            int at = header.indexOf(" @");
+            int open = header.indexOf('(', at);
+            name = header.substring(at + 2, open);
+            List<String> parameterList = splitList(header.substring(open + 1, header.lastIndexOf(')')));
+            parameters = new int[parameterList.size()];
+            for (int i = 0; i < parameters.length; ++i) {
+                TypeParser parser = new TypeParser(parameterList.get(i), 0);
+                parser.parse();
+                parameters[i] = register(parser.rest());
+            }
+            for (String line : body) {
+                if (!line.startsWith("\t") && line.endsWith(":")) {
+                    String label = line.substring(0, line.length() - 1);
+                    blockIndices.put(label, blocks.size());
+                    blocks.add(new Block(label));
+                }
+            }
+            Block block = null;
+            for (String line : body) {
+                String text = line.trim();
+                if (text.isEmpty() || text.startsWith(";"))
+                    continue;
+                if (!line.startsWith("\t")) {
+                    block = blocks.get(blockIndices.get(text.substring(0, text.length() - 1)));
+                    continue;
+                }
+                if (block == null)
+                    throw new ExecutionException("instruction outside of a block in " + name);
+                Instruction instruction = parseInstruction(text);
+                if (instruction instanceof Phi phi)
+                    block.phis.add(phi);
+                else
+                    block.instructions.add(instruction);
+            }
+        }
+
+        int registerCount() {
+            return registers.size();
+        }
+
+        private int register(String name) {
+            return registers.computeIfAbsent(name, key -> registers.size());
+        }
+
+        private int block(String reference) {
+            Integer index = blockIndices.get(reference.trim().replaceFirst("^(label )?%", ""));
+            if (index == null)
+                throw new ExecutionException("unknown block " + reference + " in " + name);
+            return index;
+        }
+
+        private Operand operand(String text) {
+            text = text.trim();
+            if (text.startsWith("%"))
+                return new Register(register(text));
+            if (text.startsWith("@"))
+                return new Global(text.substring(1));
+            if (text.equals("undef") || text.equals("null") || text.equals("false"))
+                return new Immediate(0L);
+            if (text.equals("true"))
+                return new Immediate(1L);
+            return new Immediate(Long.parseLong(text));
+        }
+
+        private TypedOperand typedOperand(String text) {
+            TypeParser parser = new TypeParser(text, 0);
+            Type type = parser.parse();
+            String value = parser.rest();
+            if (type.isAggregate() && value.equals("undef"))
+                return new TypedOperand(type, new Immediate(new Object[type.fields.size()]));
+            return new TypedOperand(type, operand(value));
+        }
+
+        private Instruction parseInstruction(String text) {
+            int result = -1;
+            if (text.startsWith("%")) {
+                int assign = text.indexOf(" = ");
+                result = register(text.substring(0, assign));
+                text = text.substring(assign + 3);
+            }
+            Instruction instruction = parseOperation(text);
+            instruction.result = result;
+            return instruction;
+        }
+
+        private Instruction parseOperation(String text) {
+            int space = text.indexOf(' ');
+            String opcode = space < 0 ? text : text.substring(0, space);
+            String rest = space < 0 ? "" : text.substring(space + 1);
+            switch (opcode) {
+                case "add", "sub", "mul", "sdiv", "srem", "and", "or" -> {
+                    Binary binary = new Binary();
+                    binary.opcode = opcode;
+                    List<String> operands = splitList(rest);
+                    TypedOperand lhs = typedOperand(operands.get(0));
+                    binary.bits = lhs.type().count;
+                    binary.lhs = lhs.operand();
+                    binary.rhs = operand(operands.get(1));
+                    return binary;
+                }
+                case "icmp" -> {
+                    Compare compare = new Compare();
+                    int predicateEnd = rest.indexOf(' ');
+                    compare.predicate = rest.substring(0, predicateEnd);
+                    List<String> operands = splitList(rest.substring(predicateEnd + 1));
+                    TypedOperand lhs = typedOperand(operands.get(0));
+                    compare.bits = lhs.type().kind == 'p' ? 64 : lhs.type().count;
+                    compare.lhs = lhs.operand();
+                    compare.rhs = operand(operands.get(1));
+                    return compare;
+                }
+                case "zext", "sext", "trunc", "bitcast" -> {
+                    Cast cast = new Cast();
+                    cast.opcode = opcode;
+                    int to = rest.lastIndexOf(" to ");
+                    TypedOperand value = typedOperand(rest.substring(0, to));
+                    cast.from = value.type();
+                    cast.value = value.operand();
+                    cast.to = parseType(rest.substring(to + 4));
+                    return cast;
+                }
+                case "alloca" -> {
+                    Alloca alloca = new Alloca();
+                    List<String> operands = splitList(rest);
+                    alloca.type = parseType(operands.get(0));
+                    alloca.count = operands.size() > 1 ? typedOperand(operands.get(1)).operand() : new Immediate(1L);
+                    return alloca;
+                }
+                case "load" -> {
+                    Load load = new Load();
+                    List<String> operands = splitList(rest);
+                    load.type = parseType(operands.get(0));
+                    load.pointer = typedOperand(operands.get(1)).operand();
+                    return load;
+                }
+                case "store" -> {
+                    Store store = new Store();
+                    List<String> operands = splitList(rest);
+                    TypedOperand value = typedOperand(operands.get(0));
+                    store.type = value.type();
+                    store.value = value.operand();
+                    store.pointer = typedOperand(operands.get(1)).operand();
+                    return store;
+                }
+                case "getelementptr" -> {
+                    GetElementPtr gep = new GetElementPtr();
+                    List<String> operands = splitList(rest);
+                    gep.type = parseType(operands.get(0));
+                    gep.pointer = typedOperand(operands.get(1)).operand();
+                    gep.indices = new ArrayList<>();
+                    for (String index : operands.subList(2, operands.size()))
+                        gep.indices.add(typedOperand(index));
+                    return gep;
+                }
+                case "extractvalue" -> {
+                    ExtractValue extract = new ExtractValue();
+                    List<String> operands = splitList(rest);
+                    extract.aggregate = typedOperand(operands.get(0)).operand();
+                    extract.index = Integer.parseInt(operands.get(1));
+                    return extract;
+                }
+                case "insertvalue" -> {
+                    InsertValue insert = new InsertValue();
+                    List<String> operands = splitList(rest);
+                    insert.aggregate = typedOperand(operands.get(0)).operand();
+                    insert.value = typedOperand(operands.get(1)).operand();
+                    insert.index = Integer.parseInt(operands.get(2));
+                    return insert;
+                }
+                case "tail", "musttail" -> {
+                    return parseOperation(rest);
+                }
+                case "call" -> {
+                    Call call = new Call();
+                    int at = rest.indexOf('@');
+                    int open = rest.indexOf('(', at);
+                    call.callee = rest.substring(at + 1, open);
+                    call.arguments = new ArrayList<>();
+                    for (String argument : splitList(rest.substring(open + 1, rest.lastIndexOf(')'))))
+                        call.arguments.add(typedOperand(argument).operand());
+                    return call;
+                }
+                case "phi" -> {
+                    Phi phi = new Phi();
+                    TypeParser parser = new TypeParser(rest, 0);
+                    parser.parse();
+                    List<String> incoming = splitList(parser.rest());
+                    phi.values = new Operand[incoming.size()];
+                    phi.blocks = new int[incoming.size()];
+                    for (int i = 0; i < incoming.size(); ++i) {
+                        String pair = incoming.get(i);
+                        List<String> parts = splitList(pair.substring(1, pair.length() - 1));
+                        phi.values[i] = operand(parts.get(0));
+                        phi.blocks[i] = block(parts.get(1));
+                    }
+                    return phi;
+                }
+                case "br" -> {
+                    Branch branch = new Branch();
+                    List<String> operands = splitList(rest);
+                    if (operands.size() == 1) {
+                        branch.trueTarget = block(operands.get(0));
+                        branch.falseTarget = branch.trueTarget;
+                    } else {
+                        branch.condition = typedOperand(operands.get(0)).operand();
+                        branch.trueTarget = block(operands.get(1));
+                        branch.falseTarget = block(operands.get(2));
+                    }
+                    return branch;
+                }
+                case "ret" -> {
+                    Return ret = new Return();
+                    if (!rest.equals("void"))
+                        ret.value = typedOperand(rest).operand();
+                    return ret;
+                }
+                default -> throw new ExecutionException("unknown instruction " + text);
+            }
+        }
+    }
+
+    /* ----------------------------------------------------------- execution */
+
+    private Object call(String name, Object[] arguments) {
+        FunctionCode function = functions.get(name);
+        if (function == null)
+            return callRuntime(name, arguments);
+        Object[] registers = new Object[function.registerCount()];
+        for (int i = 0; i < arguments.length; ++i)
+            registers[function.parameters[i]] = arguments[i];
+        int savedStackTop = stackTop;
+        try {
+            return execute(function, registers);
+        } finally {
+            stackTop = savedStackTop;
+        }
+    }
+
+    private Object execute(FunctionCode function, Object[] registers) {
+        int previous = -1;
+        int current = 0;
+        while (true) {
+            Block block = function.blocks.get(current);
+            if (!block.phis.isEmpty()) {
+                /* phis of a block read their values at the same time */
+                Object[] values = new Object[block.phis.size()];
+                for (int i = 0; i < values.length; ++i)
+                    values[i] = incoming(block.phis.get(i), previous, registers, block);
+                for (int i = 0; i < values.length; ++i)
+                    registers[block.phis.get(i).result] = values[i];
+                executedInstructions += values.length;
+            }
+            int next = -1;
+            for (Instruction instruction : block.instructions) {
+                ++executedInstructions;
+                if (instruction instanceof Branch branch) {
+                    next = branch.condition == null || (Long) branch.condition.get(registers) != 0
+                            ? branch.trueTarget : branch.falseTarget;
+                    break;
+                }
+                if (instruction instanceof Return ret)
+                    return ret.value == null ? null : ret.value.get(registers);
+                Object value = executeInstruction(instruction, registers);
+                if (instruction.result >= 0)
+                    registers[instruction.result] = value;
+            }
+            if (next < 0)
+                throw new ExecutionException("block " + block.name + " of " + function.name + " has no terminator");
+            previous = current;
+            current = next;
+        }
+    }
+
+    private static Object incoming(Phi phi, int previous, Object[] registers, Block block) {
+        for (int i = 0; i < phi.blocks.length; ++i) {
+            if (phi.blocks[i] == previous)
+                return phi.values[i].get(registers);
+        }
+        throw new ExecutionException("phi in " + block.name + " has no value for the predecessor");
+    }
+
+    private Object executeInstruction(Instruction instruction, Object[] registers) {
+        if (instruction instanceof Binary binary) {
+            long lhs = (Long) binary.lhs.get(registers);
+            long rhs = (Long) binary.rhs.get(registers);
+            long value = switch (binary.opcode) {
+                case "add" -> lhs + rhs;
+                case "sub" -> lhs - rhs;
+                case "mul" -> lhs * rhs;
+                case "sdiv", "srem" -> {
+                    if (rhs == 0)
+                        throw new ExecutionException("division by zero");
+                    yield binary.opcode.equals("sdiv") ? lhs / rhs : lhs % rhs;
+                }
+                case "and" -> lhs & rhs;
+                default -> lhs | rhs;
+            };
+            return normalize(value, binary.bits);
+        }
+        if (instruction instanceof Compare compare) {
+            long lhs = (Long) compare.lhs.get(registers);
+            long rhs = (Long) compare.rhs.get(registers);
+            boolean value = switch (compare.predicate) {
+                case "eq" -> lhs == rhs;
+                case "ne" -> lhs != rhs;
+                case "sgt" -> lhs > rhs;
+                case "sge" -> lhs >= rhs;
+                case "slt" -> lhs < rhs;
+                case "sle" -> lhs <= rhs;
+                case "ult" -> Long.compareUnsigned(unsigned(lhs, compare.bits), unsigned(rhs, compare.bits)) < 0;
+                default -> throw new ExecutionException("unknown predicate " + compare.predicate);
+            };
+            return value ? 1L : 0L;
+        }
+        if (instruction instanceof Cast cast) {
+            long value = (Long) cast.value.get(registers);
+            return switch (cast.opcode) {
+                case "zext" -> unsigned(value, cast.from.count);
+                case "sext" -> cast.from.count == 1 ? -value : value;
+                case "trunc" -> normalize(value, cast.to.count);
+                default -> value;
+            };
+        }
+        if (instruction instanceof Alloca alloca) {
+            long count = (Long) alloca.count.get(registers);
+            if (count < 0)
+                throw new ExecutionException("negative array size");
+            return allocateStack(alloca.type.size() * count);
+        }
+        if (instruction instanceof Load load)
+            return load(load.type, (Long) load.pointer.get(registers));
+        if (instruction instanceof Store store) {
+            store(store.type, store.value.get(registers), (Long) store.pointer.get(registers));
+            return null;
+        }
+        if (instruction instanceof GetElementPtr gep) {
+            long address = (Long) gep.pointer.get(registers);
+            Type type = gep.type;
+            for (int i = 0; i < gep.indices.size(); ++i) {
+                long index = (Long) gep.indices.get(i).operand().get(registers);
+                if (i == 0) {
+                    address += index * type.size();
+                } else if (type.kind == 'a') {
+                    type = type.element;
+                    address += index * type.size();
+                } else {
+                    address += type.fieldOffset((int) index);
+                    type = type.fields.get((int) index);
+                }
+            }
+            return address;
+        }
+        if (instruction instanceof ExtractValue extract)
+            return ((Object[]) extract.aggregate.get(registers))[extract.index];
+        if (instruction instanceof InsertValue insert) {
+            Object[] aggregate = ((Object[]) insert.aggregate.get(registers)).clone();
+            aggregate[insert.index] = insert.value.get(registers);
+            return aggregate;
+        }
+        if (instruction instanceof Call call) {
+            Object[] arguments = new Object[call.arguments.size()];
+            for (int i = 0; i < arguments.length; ++i)
+                arguments[i] = call.arguments.get(i).get(registers);
+            return call(call.callee, arguments);
+        }
+        throw new ExecutionException("unexpected instruction");
+    }
+
+    private static long unsigned(long value, int bits) {
+        return bits >= 64 ? value : value & ((1L << bits) - 1);
+    }
+
+    /* ------------------------------------------------------------- runtime */
+
+    /**
+     * Runs a function of the runtime library, demos/runtime.c, or an intrinsic of LLVM.
+     */
+    private Object callRuntime(String name, Object[] arguments) {
+        long first = arguments.length > 0 ? (Long) arguments[0] : 0;
+        switch (name) {
+            case "__css_write_int" -> output.append(first);
+            case "__css_write_byte" -> output.append((char) (first & 0xff));
+            case "__css_write_str" -> output.append(readString(first));
+            case "__css_write_bytes" -> {
+                for (long i = 0; i < (Long) arguments[1]; ++i)
+                    output.append((char) readByte(first + i));
+            }
+            case "__css_write_endl" -> output.append('\n');
+            case "__css_read_int" -> readInt(first);
+            case "__css_read_byte" -> {
+                if (inputPosition < input.length())
+                    writeInteger(first, 1, input.charAt(inputPosition++));
+            }
+            case "__css_read_str" -> {
+                skipSpaces();
+                if (inputPosition < input.length()) {
+                    int start = inputPosition;
+                    while (inputPosition < input.length() && !isSpace(input.charAt(inputPosition)))
+                        ++inputPosition;
+                    writeString(first, input.substring(start, inputPosition));
+                }
+            }
+            case "__css_arena_alloc" -> {
+                return allocateArena(first);
+            }
+            case "__css_arena_mark" -> {
+                return arenaTop;
+            }
+            case "__css_arena_release" -> arenaTop = first;
+            case "llvm.stacksave" -> {
+                return (long) stackTop;
+            }
+            case "llvm.stackrestore" -> {
+                if (first < ALIGN || first > stackTop)
+                    throw new ExecutionException("restore of the stack above its top at " + first);
+                stackTop = (int) first;
+            }
+            case "__css_strlen" -> {
+                return (long) readString(first).length();
+            }
+            case "__css_strcmp" -> {
+                return (long) Integer.signum(compareStrings(readString(first), readString((Long) arguments[1])));
+            }
+            case "__css_strcpy" -> writeString(first, readString((Long) arguments[1]));
+            case "__css_strcat" -> writeString(first + readString(first).length(), readString((Long) arguments[1]));
+            default -> throw new ExecutionException("call of undefined function " + name);
+        }
+        return null;
+    }
+
+    /**
+     * Compares bytes as signed values like __css_strcmp(),
+     * the end of a string precedes any byte.
+     */
+    private static int compareStrings(String a, String b) {
+        for (int i = 0; i < Math.min(a.length(), b.length()); ++i) {
+            if (a.charAt(i) != b.charAt(i))
+                return Byte.compare((byte) a.charAt(i), (byte) b.charAt(i));
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    private void skipSpaces() {
+        while (inputPosition < input.length() && isSpace(input.charAt(inputPosition)))
+            ++inputPosition;
+    }
+
+    private void readInt(long address) {
+        skipSpaces();
+        int position = inputPosition;
+        boolean negative = false;
+        if (position < input.length() && (input.charAt(position) == '-' || input.charAt(position) == '+')) {
+            negative = input.charAt(position) == '-';
+            ++position;
+        }
+        if (position >= input.length() || !Character.isDigit(input.charAt(position))) {
+            inputPosition = position;
+            return;
+        }
+        int magnitude = 0;
+        while (position < input.length() && Character.isDigit(input.charAt(position)))
+            magnitude = magnitude * 10 + (input.charAt(position++) - '0');
+        inputPosition = position;
+        writeInteger(address, 4, negative ? -magnitude : magnitude);
+    }
+}
@@ -0,0 +1,184 @@
+package org.compiler;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compiles the demos and the programs in src/test/resources/cases at every
+ * optimization level, runs them by LlvmInterpreter and checks that the passes
+ * do not change what a program writes. A case may come with its input in
+ * a .in file, with the expected output in a .out file and with the most bytes
+ * it may hold on the stack when optimized in a .stack file. The checks run
+ * in the test phase of the build, a failed check fails the build.
+ */
+public class OptimizationLevelsCheck {
+    private static final List<String> LEVELS = List.of("-O0", "-O1", "-O2");
+    /* arrays are allocated on the stack by default, the passes treat the arena differently */
+    private static final List<List<String>> VARIANTS = List.of(List.of(), List.of("-farray-alloc=arena"));
+    /* deep recursion of unoptimized code runs on the stack of the interpreter */
+    private static final long INTERPRETER_STACK_SIZE = 1L << 30;
+
+    /**
+     * A program made of one or more source files, the first one defines main().
+     * @param stackLimit bytes the program may hold on the stack at -O1 and above, 0 if unchecked
+     */
+    private record Program(String name, List<Path> sources, List<String> options, String input, String expected,
+                           long stackLimit) {
+
+    }
+
+    private final Compiler compiler = new Compiler();
+    private int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        Path baseDirectory = Path.of(args.length > 0 ? args[0] : ".");
+        OptimizationLevelsCheck check = new OptimizationLevelsCheck();
+        for (Program program : programs(baseDirectory))
+            check.check(program);
+        if (check.failures > 0)
+            throw new AssertionError(check.failures + " programs behave differently at different optimization levels");
+    }
+
+    private static List<Program> programs(Path baseDirectory) throws IOException {
+        Path demos = baseDirectory.resolve("demos");
+        ArrayList<Program> programs = new ArrayList<>();
+        programs.add(new Program("max", List.of(demos.resolve("max/max.css")), List.of(),
+                "6 5 3 9 2 7 1\n", "9\n", 0));
+        programs.add(new Program("paths", List.of(demos.resolve("paths/paths.css")), List.of(),
+                Files.readString(demos.resolve("paths/input.txt")), null, 0));
+        programs.add(new Program("strings", List.of(demos.resolve("strings/strings.css")), List.of(),
+                Files.readString(demos.resolve("strings/input.txt")), null, 0));
+        programs.add(new Program("strings with libstring.css",
+                List.of(demos.resolve("strings/strings.css"), demos.resolve("strings/libstring.css")),
+                List.of("-fno-builtin-strings"), Files.readString(demos.resolve("strings/input.txt")), null, 0));
+
+        List<Path> cases;
+        try (Stream<Path> files = Files.list(baseDirectory.resolve("src/test/resources/cases"))) {
+            cases = files.filter(file -> file.toString().endsWith(".css")).sorted().toList();
+        }
+        for (Path source : cases) {
+            String name = source.getFileName().toString().replaceFirst("\\.css$", "");
+            programs.add(new Program(name, List.of(source), List.of(),
+                    readIfExists(source.resolveSibling(name + ".in"), ""),
+                    readIfExists(source.resolveSibling(name + ".out"), null),
+                    Long.parseLong(readIfExists(source.resolveSibling(name + ".stack"), "0").trim())));
+        }
+        return programs;
+    }
+
+    private static String readIfExists(Path file, String missing) throws IOException {
+        return Files.exists(file) ? Files.readString(file) : missing;
+    }
+
+    /**
+     * Runs a program compiled at every level with every variant of options
+     * and compares the outputs with the output at -O0 without extra options.
+     */
+    private void check(Program program) {
+        String reference = null;
+        for (List<String> variant : VARIANTS) {
+            for (String level : LEVELS) {
+                ArrayList<String> options = new ArrayList<>(program.options());
+                options.add(level);
+                options.addAll(variant);
+                String description = program.name() + " " + String.join(" ", options);
+                String output;
+                long instructions;
+                long stackSize;
+                try {
+                    LlvmInterpreter interpreter = new LlvmInterpreter();
+                    for (Path source : program.sources())
+                        interpreter.load(compile(source, options));
+                    output = run(interpreter, program.input());
+                    instructions = interpreter.executedInstructions();
+                    stackSize = interpreter.peakStackSize();
+                } catch (CompilationException | LlvmInterpreter.ExecutionException e) {
+                    fail(description, e.getMessage());
+                    continue;
+                }
+                if (reference == null) {
+                    reference = output;
+                    if (program.expected() != null && !output.equals(program.expected())) {
+                        fail(description, "expected output " + firstDifference(program.expected(), output));
+                        continue;
+                    }
+                } else if (!output.equals(reference)) {
+                    fail(description, "output differs from -O0 " + firstDifference(reference, output));
+                    continue;
+                }
+                if (program.stackLimit() > 0 && !level.equals("-O0") && stackSize > program.stackLimit()) {
+                    fail(description, "held " + stackSize + " bytes on the stack, at most "
+                            + program.stackLimit() + " expected");
+                    continue;
+                }
+                System.out.printf("ok %s (%d instructions)%n", description, instructions);
+            }
+        }
+    }
+
+    private String compile(Path source, List<String> options) {
+        ArrayList<String> arguments = new ArrayList<>(options);
+        arguments.add(source.toString());
+        StringWriter code = new StringWriter();
+        try {
+            compiler.compile(Compiler.openInput(source.toString()), code,
+                    CompilerOptions.parse(arguments.toArray(new String[0])));
+        } catch (CompilerOptions.UsageException e) {
+            throw new CompilationException(e.getMessage());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return code.toString();
+    }
+
+    /**
+     * Runs a program on a thread with a large stack.
+     */
+    private static String run(LlvmInterpreter interpreter, String input) {
+        String[] output = new String[1];
+        RuntimeException[] error = new RuntimeException[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                output[0] = interpreter.run(input);
+            } catch (RuntimeException e) {
+                error[0] = e;
+            } catch (StackOverflowError e) {
+                error[0] = new LlvmInterpreter.ExecutionException("recursion too deep");
+            }
+        }, "interpreter", INTERPRETER_STACK_SIZE);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (error[0] != null)
+            throw error[0];
+        return output[0];
+    }
+
+    private static String firstDifference(String expected, String actual) {
+        String[] expectedLines = expected.split("\n", -1);
+        String[] actualLines = actual.split("\n", -1);
+        for (int i = 0; i < Math.max(expectedLines.length, actualLines.length); ++i) {
+            String expectedLine = i < expectedLines.length ? expectedLines[i] : "<end>";
+            String actualLine = i < actualLines.length ? actualLines[i] : "<end>";
+            if (!expectedLine.equals(actualLine))
+                return "at line " + (i + 1) + ": expected \"" + expectedLine + "\", got \"" + actualLine + "\"";
+        }
+        return "";
+    }
+
+    private void fail(String description, String message) {
+        System.out.printf("FAIL %s: %s%n", description, message);
+        ++failures;
+    }
+}